@@ -0,0 +1,77 @@
+package doodle;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A declarative condition that closes a poll early: as soon as some time slot
+ * has at least a given number of yes votes and every required invitee has
+ * responded. Polls evaluate their condition incrementally, against running
+ * tallies updated by each response. Conditions are stored in the poll journal
+ * in their encoded form (see {@link #encode()} and {@link #decode(String)}).
+ * 
+ * @author Jonas Michel
+ * 
+ */
+public class CloseCondition {
+
+	/** The number of yes votes some time slot needs. */
+	private int minYes;
+
+	/** The user names of the invitees that must have responded. */
+	private Set<String> required;
+
+	public CloseCondition(int minYes, Set<String> required) {
+		this.minYes = minYes;
+		this.required = Collections.unmodifiableSet(new HashSet<String>(
+				required));
+	}
+
+	public int getMinYes() {
+		return minYes;
+	}
+
+	public Set<String> getRequired() {
+		return required;
+	}
+
+	/**
+	 * Encodes the condition as a string.
+	 * 
+	 * @return the encoded condition.
+	 */
+	public String encode() {
+		StringBuilder sb = new StringBuilder(Integer.toString(minYes) + ":");
+		for (String name : required)
+			sb.append(name + ",");
+
+		return sb.toString();
+	}
+
+	/**
+	 * Decodes a condition encoded by {@link #encode()}.
+	 * 
+	 * @param encoded
+	 *            the encoded condition.
+	 * @return the condition.
+	 */
+	public static CloseCondition decode(String encoded) {
+		int colon = encoded.indexOf(':');
+
+		Set<String> required = new HashSet<String>();
+		for (String name : encoded.substring(colon + 1).split(","))
+			if (!name.isEmpty())
+				required.add(name);
+
+		return new CloseCondition(Integer.parseInt(encoded.substring(0, colon)),
+				required);
+	}
+
+	@Override
+	public String toString() {
+		return "at least " + Integer.toString(minYes)
+				+ " yes vote(s) on a time slot"
+				+ (required.isEmpty() ? "" : " and responses from " + required);
+	}
+}
@@ -0,0 +1,198 @@
+package doodle;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Holds a user's closed polls. Closed polls are written to durable storage as
+ * soon as they are added and only the most recently used ones are kept in
+ * memory; the rest are loaded from storage when they are needed again (e.g.,
+ * when the user lists or shows closed polls). This keeps the memory used by
+ * long running users bounded no matter how many polls they have closed.
+ * 
+ * @author Jonas Michel
+ * 
+ * @param <K>
+ *            the key identifying a closed poll.
+ * @param <V>
+ *            a closed poll.
+ */
+public class ClosedPollCache<K, V> extends AbstractMap<K, V> {
+
+	/**
+	 * Moves closed polls to and from durable storage.
+	 */
+	public interface Loader<K, V> {
+
+		/**
+		 * Loads a closed poll from storage.
+		 * 
+		 * @param key
+		 *            the closed poll's key.
+		 * @return the closed poll, or null if it is not in storage.
+		 */
+		public V load(K key);
+
+		/**
+		 * Writes a closed poll to storage.
+		 * 
+		 * @param key
+		 *            the closed poll's key.
+		 * @param value
+		 *            the closed poll.
+		 */
+		public void store(K key, V value);
+	}
+
+	/** Moves closed polls to and from storage. */
+	private Loader<K, V> loader;
+
+	/** Holds the keys of all closed polls. */
+	private Set<K> keys;
+
+	/** Holds the most recently used closed polls. */
+	private Map<K, V> cache;
+
+	public ClosedPollCache(Loader<K, V> loader, final int capacity) {
+		this.loader = loader;
+
+		keys = Collections.newSetFromMap(new ConcurrentHashMap<K, Boolean>());
+		cache = new LinkedHashMap<K, V>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * Registers the key of a closed poll that is already in storage, without
+	 * loading it.
+	 * 
+	 * @param key
+	 *            the closed poll's key.
+	 */
+	public void index(K key) {
+		keys.add(key);
+	}
+
+	@Override
+	public V get(Object key) {
+		if (!keys.contains(key))
+			return null;
+
+		synchronized (cache) {
+			V value = cache.get(key);
+			if (value != null)
+				return value;
+		}
+
+		@SuppressWarnings("unchecked")
+		K k = (K) key;
+		V value = loader.load(k);
+		if (value == null)
+			return null;
+
+		synchronized (cache) {
+			// another thread may have loaded it in the meantime
+			V loaded = cache.get(key);
+			if (loaded != null)
+				return loaded;
+
+			cache.put(k, value);
+		}
+
+		return value;
+	}
+
+	@Override
+	public V put(K key, V value) {
+		loader.store(key, value);
+
+		synchronized (cache) {
+			cache.put(key, value);
+		}
+		keys.add(key);
+
+		return null; // the previous value is not loaded
+	}
+
+	@Override
+	public V remove(Object key) {
+		keys.remove(key);
+
+		synchronized (cache) {
+			return cache.remove(key);
+		}
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return keys.contains(key);
+	}
+
+	@Override
+	public int size() {
+		return keys.size();
+	}
+
+	@Override
+	public Set<Map.Entry<K, V>> entrySet() {
+		return new AbstractSet<Map.Entry<K, V>>() {
+			@Override
+			public Iterator<Map.Entry<K, V>> iterator() {
+				final Iterator<K> it = keys.iterator();
+
+				// closed polls are loaded one at a time as they are iterated
+				return new Iterator<Map.Entry<K, V>>() {
+					private Map.Entry<K, V> next = advance();
+
+					private Map.Entry<K, V> advance() {
+						while (it.hasNext()) {
+							K key = it.next();
+							V value = get(key);
+							if (value != null)
+								return new SimpleImmutableEntry<K, V>(key,
+										value);
+						}
+						return null;
+					}
+
+					@Override
+					public boolean hasNext() {
+						return next != null;
+					}
+
+					@Override
+					public Map.Entry<K, V> next() {
+						if (next == null)
+							throw new NoSuchElementException();
+
+						Map.Entry<K, V> entry = next;
+						next = advance();
+						return entry;
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return keys.size();
+			}
+		};
+	}
+}
@@ -0,0 +1,139 @@
+package doodle;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Chooses the final time slot of a poll that closes automatically when its
+ * deadline passes. Policies are stored in the poll journal in their encoded
+ * form (see {@link #encode()} and {@link #decode(String)}).
+ * 
+ * @author Jonas Michel
+ * 
+ */
+public abstract class ClosingPolicy {
+
+	/** The encoded policy names. */
+	public static final String HIGHEST_SCORE = "highest_score";
+	public static final String REQUIRED_ATTENDEES = "required";
+
+	/**
+	 * Chooses a poll's final time slot.
+	 * 
+	 * @param responses
+	 *            the poll's time slots and responses.
+	 * @return the final time slot.
+	 */
+	public abstract TimeSlot choose(Map<TimeSlot, List<Response>> responses);
+
+	/**
+	 * Encodes the policy as a string.
+	 * 
+	 * @return the encoded policy.
+	 */
+	public abstract String encode();
+
+	/**
+	 * Decodes a policy encoded by {@link #encode()}.
+	 * 
+	 * @param encoded
+	 *            the encoded policy.
+	 * @return the policy.
+	 */
+	public static ClosingPolicy decode(String encoded) {
+		if (encoded.startsWith(REQUIRED_ATTENDEES + ":")) {
+			Set<String> required = new HashSet<String>();
+			for (String name : encoded.substring(
+					REQUIRED_ATTENDEES.length() + 1).split(","))
+				if (!name.isEmpty())
+					required.add(name);
+
+			return requiredAttendees(required);
+		}
+
+		return highestScore();
+	}
+
+	/**
+	 * Returns a policy that chooses the time slot with the highest vote score
+	 * (the earliest one in case of a tie).
+	 * 
+	 * @return the policy.
+	 */
+	public static ClosingPolicy highestScore() {
+		return new ClosingPolicy() {
+			@Override
+			public TimeSlot choose(Map<TimeSlot, List<Response>> responses) {
+				return best(responses, Collections.<String> emptySet());
+			}
+
+			@Override
+			public String encode() {
+				return HIGHEST_SCORE;
+			}
+		};
+	}
+
+	/**
+	 * Returns a policy that chooses the time slot best suiting a set of
+	 * required attendees: the one with the highest vote score among the
+	 * required attendees, then with the highest vote score overall (the
+	 * earliest one in case of a tie).
+	 * 
+	 * @param required
+	 *            the user names of the required attendees.
+	 * @return the policy.
+	 */
+	public static ClosingPolicy requiredAttendees(final Set<String> required) {
+		return new ClosingPolicy() {
+			@Override
+			public TimeSlot choose(Map<TimeSlot, List<Response>> responses) {
+				return best(responses, required);
+			}
+
+			@Override
+			public String encode() {
+				StringBuilder sb = new StringBuilder(REQUIRED_ATTENDEES + ":");
+				for (String name : required)
+					sb.append(name + ",");
+
+				return sb.toString();
+			}
+		};
+	}
+
+	/**
+	 * Finds the time slot with the highest vote score among a set of required
+	 * attendees, then overall.
+	 */
+	private static TimeSlot best(Map<TimeSlot, List<Response>> responses,
+			Set<String> required) {
+		TimeSlot best = null;
+		float bestRequired = -1, bestScore = -1;
+
+		for (TimeSlot timeSlot : Poll.getSortedTimeSlots(responses)) {
+			float requiredScore = 0, score = 0;
+			for (Response response : responses.get(timeSlot)) {
+				float value = response.getChoice() == Response.Choice.YES ? 1
+						: response.getChoice() == Response.Choice.MAYBE ? 0.5f
+								: 0;
+
+				score += value;
+				if (required.contains(response.getResponder()))
+					requiredScore += value;
+			}
+
+			if (requiredScore > bestRequired
+					|| (requiredScore == bestRequired && score > bestScore)) {
+				best = timeSlot;
+				bestRequired = requiredScore;
+				bestScore = score;
+			}
+		}
+
+		return best;
+	}
+}
@@ -1,22 +1,43 @@
 package doodle;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
 import java.net.ConnectException;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+import javax.jms.JMSException;
 import javax.jms.QueueConnectionFactory;
 import javax.naming.Context;
 import javax.naming.InitialContext;
 import javax.naming.NamingException;
 
+import org.objectweb.joram.client.jms.Destination;
+import org.objectweb.joram.client.jms.Queue;
 import org.objectweb.joram.client.jms.admin.AdminException;
 import org.objectweb.joram.client.jms.admin.AdminModule;
 import org.objectweb.joram.client.jms.admin.User;
 import org.objectweb.joram.client.jms.tcp.QueueTcpConnectionFactory;
+import org.objectweb.joram.client.jms.tcp.TcpConnectionFactory;
 
 /**
  * Administers an agent server for the doodle poll system. This must be executed
  * prior to creating doodle poll users.
  * 
+ * When run with the --sweep argument, the administration instead reclaims the
+ * orphaned doodle queues on the agent server (see isOrphaned). When run with
+ * the --provision argument followed by a roster file (one user name per line),
+ * it pre-creates and binds the listening queues of the roster's users, so they
+ * log on without any administration round trips.
+ * 
  * @author Jonas Michel
  * 
  */
@@ -24,7 +45,62 @@ public class DoodleAdmin {
 
 	public static final String QUEUE_CONNECTION_FACTORY = "qcf";
 
+	/**
+	 * Creates the name the connection factory of a Joram server is bound to.
+	 * 
+	 * @param serverId
+	 *            the server's id.
+	 * @return the connection factory's name.
+	 */
+	public static String getConnectionFactoryName(int serverId) {
+		return QUEUE_CONNECTION_FACTORY + "_" + Integer.toString(serverId);
+	}
+
 	public static void main(String[] args) {
+		if (args.length > 0 && args[0].equals("--sweep")) {
+			sweep();
+			return;
+		}
+
+		if (args.length > 1 && args[0].equals("--provision")) {
+			provision(args[1]);
+			return;
+		}
+
+		if (args.length > 0 && args[0].equals("--embedded")) {
+			embedded();
+			return;
+		}
+
+		configure();
+	}
+
+	/**
+	 * Starts an embedded agent server in this JVM, configures it, and runs a
+	 * doodle user against it in the same process. Other users may still
+	 * connect to the embedded server over TCP while this process runs.
+	 */
+	private static void embedded() {
+		try {
+			System.out.println();
+			System.out.println("Doodle poll embedded server starting...");
+			EmbeddedServer.start();
+
+		} catch (Exception e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+			return;
+		}
+
+		configure();
+
+		new doodle.User().join();
+	}
+
+	/**
+	 * Configures the agent server for the doodle poll system.
+	 */
+	private static void configure() {
 		try {
 			System.out.println();
 			System.out.println("Doodle poll administration configuring...");
@@ -32,14 +108,21 @@ public class DoodleAdmin {
 			// clear out the shared file of available users
 			UsersMonitor.reset();
 
-			AdminModule.connect();
-
-			User.create("anonymous", "anonymous");
+			EmbeddedServer.adminConnect();
 
 			QueueConnectionFactory qcf = QueueTcpConnectionFactory.create();
 
 			Context context = new InitialContext();
 			context.bind(QUEUE_CONNECTION_FACTORY, qcf);
+
+			// doodle queues may live on any of the configured servers
+			for (int i = 0; i < Settings.SERVER_IDS.length; i++) {
+				User.create("anonymous", "anonymous", Settings.SERVER_IDS[i]);
+
+				context.bind(getConnectionFactoryName(Settings.SERVER_IDS[i]),
+						TcpConnectionFactory.create(Settings.SERVER_HOSTS[i],
+								Settings.SERVER_PORTS[i]));
+			}
 			context.close();
 
 			AdminModule.disconnect();
@@ -59,4 +142,285 @@ public class DoodleAdmin {
 			e.printStackTrace();
 		}
 	}
+
+	/**
+	 * Provisions the listening queues of the users in a roster file. The
+	 * queues are created and bound in batches of Settings.PROVISION_BATCH_SIZE,
+	 * each batch under its own administration connection. Provisioned queues
+	 * are also bound under their provisioning name, so peers never reclaim
+	 * them.
+	 * 
+	 * @param roster
+	 *            the path to the roster file.
+	 */
+	private static void provision(String roster) {
+		try {
+			System.out.println();
+			System.out.println("Doodle poll roster provisioning...");
+
+			List<String> users = readRoster(roster);
+
+			Context context = new InitialContext();
+			for (int i = 0; i < users.size(); i += Settings.PROVISION_BATCH_SIZE) {
+				List<String> batch = users.subList(i,
+						Math.min(i + Settings.PROVISION_BATCH_SIZE, users.size()));
+
+				EmbeddedServer.adminConnect();
+				for (String user : batch) {
+					String queueName = Peer.getQueueName(user, Peer.Role.USER);
+
+					Queue queue = Queue.create(ServerRing.getDefault()
+							.getServer(queueName), queueName);
+					queue.setFreeReading();
+					queue.setFreeWriting();
+
+					context.rebind(queueName, queue);
+					context.rebind(QueueLifecycle.getProvisionedName(queueName),
+							queue);
+				}
+				AdminModule.disconnect();
+
+				System.out.println("Provisioned "
+						+ Integer.toString(i + batch.size()) + " of "
+						+ Integer.toString(users.size()) + " user queue(s)");
+			}
+			context.close();
+
+			System.out.println("Doodle poll roster provisioned.");
+
+		} catch (IOException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		} catch (AdminException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		} catch (NamingException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Reads the user names in a roster file. Blank lines and lines starting
+	 * with '#' are ignored.
+	 * 
+	 * @param roster
+	 *            the path to the roster file.
+	 * @return the roster's user names, without duplicates.
+	 * @throws IOException
+	 */
+	private static List<String> readRoster(String roster) throws IOException {
+		Set<String> users = new LinkedHashSet<String>();
+
+		BufferedReader reader = new BufferedReader(new FileReader(roster));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (!line.isEmpty() && !line.startsWith("#"))
+					users.add(line);
+			}
+		} finally {
+			reader.close();
+		}
+
+		return new ArrayList<String>(users);
+	}
+
+	/**
+	 * Reclaims the orphaned doodle queues on the configured agent servers. The
+	 * queues are checked and reclaimed in batches of Settings.SWEEP_BATCH_SIZE,
+	 * each batch under its own administration connection.
+	 * 
+	 * A peer that is starting up has a queue that looks orphaned for a while
+	 * (e.g., created but not bound yet, or its user not online yet), so the
+	 * queues are checked twice, Settings.SWEEP_GRACE_PERIOD apart, and only
+	 * those orphaned both times are reclaimed.
+	 */
+	private static void sweep() {
+		try {
+			System.out.println();
+			System.out.println("Doodle poll queue sweep starting...");
+
+			Context context = new InitialContext();
+			Map<String, Queue> suspects = findOrphans(context, null);
+			System.out.println("Found " + Integer.toString(suspects.size())
+					+ " orphaned doodle queue(s), checking them again in "
+					+ Long.toString(Settings.SWEEP_GRACE_PERIOD / 1000)
+					+ " second(s)...");
+
+			Map<String, Queue> orphans = suspects;
+			if (!suspects.isEmpty()) {
+				Thread.sleep(Settings.SWEEP_GRACE_PERIOD);
+				orphans = findOrphans(context, suspects.keySet());
+			}
+
+			List<Queue> queues = new ArrayList<Queue>(orphans.values());
+			for (int i = 0; i < queues.size(); i += Settings.SWEEP_BATCH_SIZE) {
+				List<Queue> batch = queues.subList(i,
+						Math.min(i + Settings.SWEEP_BATCH_SIZE, queues.size()));
+
+				EmbeddedServer.adminConnect();
+				for (Queue queue : batch)
+					QueueLifecycle.reclaim(context, queue);
+				AdminModule.disconnect();
+			}
+			context.close();
+
+			System.out.println("Reclaimed " + Integer.toString(queues.size())
+					+ " orphaned doodle queue(s).");
+
+		} catch (ConnectException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		} catch (UnknownHostException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		} catch (AdminException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		} catch (NamingException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		} catch (JMSException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		} catch (InterruptedException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Finds the orphaned doodle queues on the configured agent servers, as of
+	 * the current available users and archived polls.
+	 * 
+	 * @param context
+	 *            the JNDI context doodle queues are bound in.
+	 * @param candidates
+	 *            the ids of the queues to check (null to check every queue).
+	 * @return the orphaned queues, by id.
+	 * @throws ConnectException
+	 * @throws UnknownHostException
+	 * @throws AdminException
+	 */
+	private static Map<String, Queue> findOrphans(Context context,
+			Set<String> candidates) throws ConnectException,
+			UnknownHostException, AdminException {
+		Set<String> available = UsersMonitor.createBackend()
+				.readAvailableUsers();
+		Set<String> archived = getArchivedPollQueues();
+
+		EmbeddedServer.adminConnect();
+		List<Queue> queues = new ArrayList<Queue>();
+		for (int serverId : Settings.SERVER_IDS) {
+			for (Destination destination : AdminModule
+					.getDestinations(serverId)) {
+				if (destination instanceof Queue
+						&& destination.getAdminName().startsWith(
+								Peer.QUEUE_PREFIX)
+						&& (candidates == null || candidates
+								.contains(destination.getName())))
+					queues.add((Queue) destination);
+			}
+		}
+		AdminModule.disconnect();
+
+		Map<String, Queue> orphans = new LinkedHashMap<String, Queue>();
+		for (int i = 0; i < queues.size(); i += Settings.SWEEP_BATCH_SIZE) {
+			List<Queue> batch = queues.subList(i,
+					Math.min(i + Settings.SWEEP_BATCH_SIZE, queues.size()));
+
+			EmbeddedServer.adminConnect();
+			for (Queue queue : batch) {
+				if (isOrphaned(context, queue, available, archived))
+					orphans.put(queue.getName(), queue);
+			}
+			AdminModule.disconnect();
+
+			System.out.println("Checked " + Integer.toString(i + batch.size())
+					+ " of " + Integer.toString(queues.size())
+					+ " doodle queue(s)");
+		}
+
+		return orphans;
+	}
+
+	/**
+	 * Checks whether a doodle queue is orphaned. A queue is orphaned if it is
+	 * no longer bound in JNDI (no peer can reach it), if it belongs to a poll
+	 * that has been closed and archived, or if it belongs to an offline user,
+	 * holds no undelivered messages, and was not provisioned (the user's queue
+	 * is re-created when it logs on).
+	 * 
+	 * @param context
+	 *            the JNDI context doodle queues are bound in.
+	 * @param queue
+	 *            the doodle queue.
+	 * @param available
+	 *            the currently available users.
+	 * @param archived
+	 *            the queue names of the archived polls.
+	 * @return true if the queue is orphaned.
+	 * @throws ConnectException
+	 * @throws AdminException
+	 */
+	private static boolean isOrphaned(Context context, Queue queue,
+			Set<String> available, Set<String> archived)
+			throws ConnectException, AdminException {
+		String queueName = queue.getAdminName();
+
+		try {
+			Object bound = context.lookup(queueName);
+			if (!(bound instanceof Queue)
+					|| !((Queue) bound).getName().equals(queue.getName()))
+				return true; // superseded by a newer queue
+
+		} catch (NamingException e) {
+			return true; // unbound
+		}
+
+		if (archived.contains(queueName))
+			return true;
+
+		String userPrefix = Peer.getQueueName("", Peer.Role.USER);
+		if (queueName.startsWith(userPrefix)) {
+			String user = queueName.substring(userPrefix.length());
+			return !available.contains(user)
+					&& queue.getPendingMessages() == 0
+					&& !QueueLifecycle.isProvisioned(context, queueName);
+		}
+
+		return false;
+	}
+
+	/**
+	 * Collects the queue names of the polls archived by every user.
+	 * 
+	 * @return the archived poll queue names.
+	 */
+	private static Set<String> getArchivedPollQueues() {
+		Set<String> queueNames = new HashSet<String>();
+
+		File[] users = new File(Settings.DATA_PATH).listFiles();
+		if (users == null)
+			return queueNames;
+
+		for (File user : users) {
+			if (!user.isDirectory())
+				continue;
+
+			try {
+				for (String title : PollArchive.readTitles(user.getName()))
+					queueNames.add(Peer.getQueueName(new Poll.PollKey(title,
+							user.getName()).toString(), Peer.Role.POLL));
+
+			} catch (IOException e) {
+				// TODO Auto-generated catch block
+				e.printStackTrace();
+			}
+		}
+
+		return queueNames;
+	}
 }
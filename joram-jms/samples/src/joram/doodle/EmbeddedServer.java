@@ -0,0 +1,93 @@
+package doodle;
+
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+
+import javax.jms.QueueConnectionFactory;
+
+import org.objectweb.joram.client.jms.admin.AdminException;
+import org.objectweb.joram.client.jms.admin.AdminModule;
+import org.objectweb.joram.client.jms.local.LocalConnectionFactory;
+
+import fr.dyade.aaa.agent.AgentServer;
+
+/**
+ * Runs a Joram agent server inside the current JVM, for single-node
+ * deployments. The server is configured by the a3servers.xml file in the
+ * working directory (see the doodle_embedded ant target). Peers in the same
+ * JVM as a running embedded server connect to it through a local (in-VM)
+ * connection factory and administer it through a collocated connection, so
+ * their messages never go over TCP; other processes still connect to it over
+ * TCP as usual.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+public class EmbeddedServer {
+
+	/** The local connection factory of the running embedded server. */
+	private static QueueConnectionFactory localFactory = null;
+
+	/**
+	 * Starts the embedded server. Does nothing if it is already running.
+	 * 
+	 * @throws Exception
+	 *             if the agent server fails to initialize or start.
+	 */
+	public static synchronized void start() throws Exception {
+		if (localFactory != null)
+			return;
+
+		AgentServer.init(Settings.EMBEDDED_SERVER_ID,
+				Settings.EMBEDDED_STORAGE_DIR, null);
+		AgentServer.start();
+
+		localFactory = LocalConnectionFactory.create();
+	}
+
+	/**
+	 * Stops the embedded server. Does nothing if it is not running.
+	 */
+	public static synchronized void stop() {
+		if (localFactory == null)
+			return;
+
+		AgentServer.stop();
+		localFactory = null;
+	}
+
+	/**
+	 * Checks whether an embedded server is running in this JVM.
+	 * 
+	 * @return true if an embedded server is running.
+	 */
+	public static synchronized boolean isRunning() {
+		return localFactory != null;
+	}
+
+	/**
+	 * Returns the local connection factory of the running embedded server.
+	 * 
+	 * @return the local connection factory, or null if no embedded server is
+	 *         running.
+	 */
+	public static synchronized QueueConnectionFactory getConnectionFactory() {
+		return localFactory;
+	}
+
+	/**
+	 * Opens an administration connection, collocated if an embedded server is
+	 * running and over TCP otherwise.
+	 * 
+	 * @throws ConnectException
+	 * @throws UnknownHostException
+	 * @throws AdminException
+	 */
+	public static void adminConnect() throws ConnectException,
+			UnknownHostException, AdminException {
+		if (isRunning())
+			AdminModule.collocatedConnect("root", "root");
+		else
+			AdminModule.connect();
+	}
+}
@@ -0,0 +1,162 @@
+package doodle;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A user's event loop. Everything that happens to a user -- a command line
+ * entered, a change in the available users, a message arriving on the user's
+ * queue, an alert to display -- is posted to the loop as a typed event, and a
+ * single thread takes the events one at a time. Event sources that cannot
+ * post by themselves (e.g., the presence backend) are polled by the loop at
+ * every tick.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+public class EventLoop {
+
+	/** The types of events. */
+	public enum Type {
+		INPUT, PRESENCE, MESSAGE, ALERT
+	};
+
+	/** The events that have not been taken yet. */
+	private final BlockingQueue<Event> events = new LinkedBlockingQueue<Event>();
+
+	/** The sources polled at every tick. */
+	private final List<Source> sources = new CopyOnWriteArrayList<Source>();
+
+	/** The time the sources are polled next. */
+	private long nextTick = 0;
+
+	/**
+	 * Posts an event to the loop. May be called by any thread.
+	 * 
+	 * @param event
+	 *            the event.
+	 */
+	public void post(Event event) {
+		events.add(event);
+	}
+
+	/**
+	 * Adds a source to poll at every tick.
+	 * 
+	 * @param source
+	 *            the event source.
+	 */
+	public void addSource(Source source) {
+		sources.add(source);
+	}
+
+	/**
+	 * Checks whether the loop has events that have not been taken yet.
+	 * 
+	 * @return true if no event is waiting.
+	 */
+	public boolean isEmpty() {
+		return events.isEmpty();
+	}
+
+	/**
+	 * Takes the next event, waiting for one if necessary. Called by the
+	 * loop's thread only.
+	 * 
+	 * @return the next event.
+	 * @throws InterruptedException
+	 */
+	public Event next() throws InterruptedException {
+		while (true) {
+			long now = System.currentTimeMillis();
+			if (now >= nextTick) {
+				nextTick = now + Settings.EVENT_LOOP_TICK;
+
+				for (Source source : sources) {
+					Event event = source.poll();
+					if (event != null)
+						events.add(event);
+				}
+			}
+
+			Event event = events.poll(nextTick - now, TimeUnit.MILLISECONDS);
+			if (event != null)
+				return event;
+		}
+	}
+
+	/**
+	 * A source of events the loop polls.
+	 */
+	public interface Source {
+
+		/**
+		 * Checks for a new event without blocking.
+		 * 
+		 * @return the event, or null if there is none.
+		 */
+		public Event poll();
+	}
+
+	/**
+	 * An event: a line of input (text), a change in the available users (log
+	 * ons and log offs), a message (payload), or a signal that alerts are
+	 * waiting in the UI's alert buffer.
+	 */
+	public static class Event {
+		private final Type type;
+		private final String text;
+		private final Set<String> logOns;
+		private final Set<String> logOffs;
+		private final Payload payload;
+
+		private Event(Type type, String text, Set<String> logOns,
+				Set<String> logOffs, Payload payload) {
+			this.type = type;
+			this.text = text;
+			this.logOns = logOns;
+			this.logOffs = logOffs;
+			this.payload = payload;
+		}
+
+		public static Event input(String line) {
+			return new Event(Type.INPUT, line, null, null, null);
+		}
+
+		public static Event presence(Set<String> logOns, Set<String> logOffs) {
+			return new Event(Type.PRESENCE, null, logOns, logOffs, null);
+		}
+
+		public static Event message(Payload payload) {
+			return new Event(Type.MESSAGE, null, null, null, payload);
+		}
+
+		public static Event alert() {
+			return new Event(Type.ALERT, null, null, null, null);
+		}
+
+		public Type getType() {
+			return type;
+		}
+
+		public String getText() {
+			return text;
+		}
+
+		public Set<String> getLogOns() {
+			return logOns;
+		}
+
+		public Set<String> getLogOffs() {
+			return logOffs;
+		}
+
+		public Payload getPayload() {
+			return payload;
+		}
+	}
+}
@@ -0,0 +1,57 @@
+package doodle;
+
+/**
+ * A transport that routes payloads directly between peers in the same JVM and
+ * over JMS otherwise. A peer listens both on an in-memory mailbox and on its
+ * JMS queue, so it is reachable from peers in any process.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+public class HybridTransport implements Transport {
+
+	/** Routes payloads between peers in this JVM. */
+	private MemoryTransport memory = new MemoryTransport();
+
+	/** Routes payloads between peers in different processes. */
+	private JmsTransport jms = new JmsTransport();
+
+	@Override
+	public void start(String queueName, Peer peer) {
+		jms.start(queueName, peer);
+		memory.start(queueName, peer);
+	}
+
+	@Override
+	public void stop() {
+		memory.stop();
+		jms.stop();
+	}
+
+	@Override
+	public void retire(boolean keepUndelivered) {
+		memory.retire(keepUndelivered);
+		jms.retire(keepUndelivered);
+	}
+
+	@Override
+	public boolean isStarted() {
+		return memory.isStarted() || jms.isStarted();
+	}
+
+	@Override
+	public boolean send(String queueName, Payload payload) {
+		if (memory.send(queueName, payload))
+			return true;
+
+		return jms.send(queueName, payload);
+	}
+
+	@Override
+	public Payload request(String queueName, Payload request, long timeout) {
+		if (MemoryTransport.isListening(queueName))
+			return memory.request(queueName, request, timeout);
+
+		return jms.request(queueName, request, timeout);
+	}
+}
@@ -0,0 +1,539 @@
+package doodle;
+
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import javax.jms.ObjectMessage;
+import javax.jms.QueueConnection;
+import javax.jms.QueueConnectionFactory;
+import javax.jms.QueueReceiver;
+import javax.jms.QueueSender;
+import javax.jms.QueueSession;
+import javax.jms.TemporaryQueue;
+import javax.jms.TextMessage;
+import javax.naming.InitialContext;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingException;
+
+import org.objectweb.joram.client.jms.Queue;
+import org.objectweb.joram.client.jms.admin.AdminException;
+import org.objectweb.joram.client.jms.admin.AdminModule;
+
+/**
+ * A transport over Joram JMS queues. Each peer listens on a dedicated JMS
+ * queue, bound in JNDI under the peer's queue name, and payloads are sent as
+ * object messages.
+ * 
+ * New queues are placed across the configured Joram servers by the server
+ * ring. A peer listens through a connection to the server its queue lives on,
+ * and sends each payload through a connection to the server the receiving
+ * queue lives on, so messages are not relayed between servers.
+ * 
+ * Requests carry a correlation id and name a temporary queue as their reply
+ * destination; the receiving peer sends its reply there with the same
+ * correlation id, and the requester hands the reply to the matching waiter.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+public class JmsTransport implements Transport, MessageListener {
+
+	/**
+	 * The JVM has a single administration connection (AdminModule is static),
+	 * so peers take turns using it.
+	 */
+	private static final Object adminLock = new Object();
+
+	/** The peer payloads are delivered to. */
+	private Peer peer;
+
+	/** The name of the peer's queue. */
+	private String queueName;
+
+	/**
+	 * Persistent JMS communication constructs. They are read without locking
+	 * by senders, including listeners that send while the transport stops.
+	 */
+	private volatile InitialContext context;
+	private volatile QueueConnection connection;
+
+	/** A peer receives messages on a dedicated queue. */
+	private QueueSession listeningSession;
+	private Queue listeningQueue;
+	private QueueReceiver listeningReceiver;
+
+	/** The id of the server the listening queue lives on. */
+	private volatile int listeningServer;
+
+	/** Connections to the other servers payloads have been sent to. */
+	private Map<Integer, QueueConnection> connections = new HashMap<Integer, QueueConnection>();
+
+	/**
+	 * A peer receives replies to its requests on a temporary queue, created
+	 * with its first request.
+	 */
+	private final Object replyLock = new Object();
+	private QueueSession replySession;
+	private TemporaryQueue replyQueue;
+
+	/** The requests waiting for their replies, by correlation id. */
+	private Map<String, PendingReply> pendingReplies = new ConcurrentHashMap<String, PendingReply>();
+
+	/** Whether this transport holds a reference to its listening queue. */
+	private boolean acquired = false;
+
+	/**
+	 * Initializes the peer's JMS constructs and listening queue. A listening
+	 * queue that already exists (e.g., provisioned by the administration) is
+	 * simply looked up; otherwise it is created, which takes a round trip to
+	 * the administration.
+	 */
+	@Override
+	public synchronized void start(String queueName, Peer peer) {
+		this.queueName = queueName;
+		this.peer = peer;
+
+		try {
+			InitialContext context = new InitialContext();
+
+			listeningQueue = lookupQueue(context, queueName);
+			if (listeningQueue == null)
+				listeningQueue = createQueue(context, queueName);
+			listeningServer = ServerRing.getServerOf(listeningQueue.getName());
+
+			connection = createConnection(context, listeningServer);
+			this.context = context;
+
+			listeningSession = connection.createQueueSession(false,
+					QueueSession.AUTO_ACKNOWLEDGE);
+
+			listeningReceiver = listeningSession.createReceiver(listeningQueue);
+			listeningReceiver.setMessageListener(this);
+
+			connection.start();
+
+			if (!acquired) {
+				QueueLifecycle.acquire(queueName);
+				acquired = true;
+			}
+
+		} catch (NamingException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		} catch (JMSException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		} catch (ConnectException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		} catch (UnknownHostException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		} catch (AdminException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Creates a connection to a Joram server.
+	 * 
+	 * @param context
+	 *            the JNDI context connection factories are bound in.
+	 * @param serverId
+	 *            the server's id.
+	 * @return a new connection.
+	 * @throws NamingException
+	 * @throws JMSException
+	 */
+	private static QueueConnection createConnection(InitialContext context,
+			int serverId) throws NamingException, JMSException {
+		// peers collocated with an embedded server bypass TCP
+		QueueConnectionFactory qcf = null;
+		if (serverId == Settings.EMBEDDED_SERVER_ID)
+			qcf = EmbeddedServer.getConnectionFactory();
+		if (qcf == null)
+			qcf = (QueueConnectionFactory) context.lookup(DoodleAdmin
+					.getConnectionFactoryName(serverId));
+
+		return qcf.createQueueConnection();
+	}
+
+	/**
+	 * Looks up an existing doodle queue.
+	 * 
+	 * @param context
+	 *            the JNDI context queues are bound in.
+	 * @param queueName
+	 *            the queue's name.
+	 * @return the queue, or null if no queue is bound to the name.
+	 * @throws NamingException
+	 */
+	private static Queue lookupQueue(InitialContext context, String queueName)
+			throws NamingException {
+		try {
+			Object bound = context.lookup(queueName);
+			if (bound instanceof Queue)
+				return (Queue) bound;
+
+		} catch (NameNotFoundException e) {
+			// the queue does not exist yet
+		}
+
+		return null;
+	}
+
+	/**
+	 * Creates a doodle queue on the server the ring places it on and binds it
+	 * to its name.
+	 * 
+	 * @param context
+	 *            the JNDI context queues are bound in.
+	 * @param queueName
+	 *            the queue's name.
+	 * @return the queue.
+	 * @throws NamingException
+	 * @throws ConnectException
+	 * @throws UnknownHostException
+	 * @throws AdminException
+	 */
+	private static Queue createQueue(InitialContext context, String queueName)
+			throws NamingException, ConnectException, UnknownHostException,
+			AdminException {
+		synchronized (adminLock) {
+			EmbeddedServer.adminConnect();
+
+			Queue queue = Queue.create(ServerRing.getDefault().getServer(
+					queueName), queueName);
+			queue.setFreeReading();
+			queue.setFreeWriting();
+
+			// rebind, the peer may be re-registering after a restart
+			context.rebind(queueName, queue);
+
+			AdminModule.disconnect();
+
+			return queue;
+		}
+	}
+
+	/**
+	 * Releases the peer's JMS constructs. Does nothing if the transport was
+	 * never started.
+	 */
+	@Override
+	public synchronized void stop() {
+		if (connection == null)
+			return;
+
+		try {
+			// temporary queues are deleted through their connection
+			synchronized (replyLock) {
+				if (replySession != null) {
+					replySession.close();
+					replyQueue.delete();
+					replySession = null;
+					replyQueue = null;
+				}
+			}
+
+			listeningReceiver.close();
+			connection.stop();
+			listeningSession.close();
+			connection.close();
+			context.close();
+
+			synchronized (connections) {
+				for (QueueConnection other : connections.values())
+					other.close();
+				connections.clear();
+			}
+
+			listeningReceiver = null;
+			listeningSession = null;
+			connection = null;
+			context = null;
+
+		} catch (JMSException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		} catch (NamingException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Stops listening and reclaims the peer's queue, unless another peer in
+	 * this JVM still listens on it or the queue was provisioned by the
+	 * administration.
+	 */
+	@Override
+	public synchronized void retire(boolean keepUndelivered) {
+		stop();
+
+		if (!acquired)
+			return;
+		acquired = false;
+
+		if (!QueueLifecycle.release(queueName))
+			return; // still in use
+
+		try {
+			InitialContext context = new InitialContext();
+
+			if (!QueueLifecycle.isProvisioned(context, queueName)) {
+				synchronized (adminLock) {
+					EmbeddedServer.adminConnect();
+
+					if (!keepUndelivered
+							|| listeningQueue.getPendingMessages() == 0)
+						QueueLifecycle.reclaim(context, listeningQueue);
+
+					AdminModule.disconnect();
+				}
+			}
+
+			context.close();
+
+		} catch (NamingException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		} catch (JMSException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		} catch (ConnectException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		} catch (UnknownHostException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		} catch (AdminException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
+	}
+
+	@Override
+	public boolean isStarted() {
+		return connection != null;
+	}
+
+	@Override
+	public boolean send(String queueName, Payload payload) {
+		return send(queueName, payload, null, null);
+	}
+
+	@Override
+	public Payload request(String queueName, Payload request, long timeout) {
+		String correlationId = UUID.randomUUID().toString();
+		PendingReply reply = new PendingReply();
+		pendingReplies.put(correlationId, reply);
+
+		try {
+			TemporaryQueue replyQueue = getReplyQueue();
+			if (replyQueue == null
+					|| !send(queueName, request, replyQueue, correlationId))
+				return null;
+
+			return reply.await(timeout);
+
+		} finally {
+			pendingReplies.remove(correlationId);
+		}
+	}
+
+	/**
+	 * Sends a payload to a peer's queue.
+	 * 
+	 * @param queueName
+	 *            the name of the receiving peer's queue.
+	 * @param payload
+	 *            the payload to send.
+	 * @param replyTo
+	 *            where the receiving peer should reply (null if the payload is
+	 *            not a request).
+	 * @param correlationId
+	 *            the request's correlation id (null if the payload is not a
+	 *            request).
+	 * @return true if the payload was delivered successfully, false otherwise.
+	 */
+	private boolean send(String queueName, Payload payload,
+			Destination replyTo, String correlationId) {
+		QueueConnection connection = this.connection;
+		InitialContext context = this.context;
+		if (connection == null || context == null)
+			return false; // not started
+
+		try {
+			// lookup the receiving peer's listening queue
+			Queue queue = (Queue) context.lookup(queueName);
+
+			// send through the server the queue lives on
+			int serverId = ServerRing.getServerOf(queue.getName());
+			if (serverId != listeningServer)
+				connection = getConnection(context, serverId);
+
+			// create a session to send the message
+			QueueSession session = connection.createQueueSession(false,
+					QueueSession.AUTO_ACKNOWLEDGE);
+
+			// make sender
+			QueueSender sender = session.createSender(queue);
+
+			Message message = session.createObjectMessage(payload);
+			if (replyTo != null) {
+				message.setJMSReplyTo(replyTo);
+				message.setJMSCorrelationID(correlationId);
+			}
+			sender.send(message);
+
+			// close the session
+			session.close();
+
+			return true;
+
+		} catch (NamingException e) {
+			// the receiving peer's queue does not exist
+			return false;
+
+		} catch (JMSException e) {
+			// some other error occurred
+			e.printStackTrace();
+
+			return false;
+		}
+	}
+
+	/**
+	 * Returns the temporary queue replies are received on, creating it if
+	 * necessary.
+	 * 
+	 * @return the reply queue, or null if the transport is not started.
+	 */
+	private TemporaryQueue getReplyQueue() {
+		synchronized (replyLock) {
+			QueueConnection connection = this.connection;
+			if (connection == null)
+				return null; // not started
+
+			if (replyQueue != null)
+				return replyQueue;
+
+			try {
+				replySession = connection.createQueueSession(false,
+						QueueSession.AUTO_ACKNOWLEDGE);
+				replyQueue = replySession.createTemporaryQueue();
+
+				QueueReceiver receiver = replySession.createReceiver(replyQueue);
+				receiver.setMessageListener(new MessageListener() {
+					@Override
+					public void onMessage(Message message) {
+						onReply(message);
+					}
+				});
+
+				return replyQueue;
+
+			} catch (JMSException e) {
+				// TODO Auto-generated catch block
+				e.printStackTrace();
+
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Hands a reply to the request waiting for it.
+	 */
+	private void onReply(Message message) {
+		try {
+			PendingReply reply = pendingReplies.remove(message
+					.getJMSCorrelationID());
+			if (reply != null)
+				reply.complete((Payload) ((ObjectMessage) message).getObject());
+
+		} catch (JMSException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Sends a peer's reply to a request.
+	 */
+	private void reply(Destination replyTo, String correlationId,
+			Payload reply) {
+		QueueConnection connection = this.connection;
+		if (connection == null)
+			return; // not started
+
+		try {
+			QueueSession session = connection.createQueueSession(false,
+					QueueSession.AUTO_ACKNOWLEDGE);
+
+			Message message = session.createObjectMessage(reply);
+			message.setJMSCorrelationID(correlationId);
+			session.createSender((javax.jms.Queue) replyTo).send(message);
+
+			session.close();
+
+		} catch (JMSException e) {
+			// the requester went away
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Returns the connection to another server, creating it if necessary.
+	 */
+	private QueueConnection getConnection(InitialContext context, int serverId)
+			throws NamingException, JMSException {
+		synchronized (connections) {
+			QueueConnection connection = connections.get(serverId);
+			if (connection == null) {
+				connection = createConnection(context, serverId);
+				connections.put(serverId, connection);
+			}
+
+			return connection;
+		}
+	}
+
+	/**
+	 * This method will be called when a message arrives on the peer's listening
+	 * queue.
+	 */
+	@Override
+	public void onMessage(Message message) {
+		try {
+			if (message instanceof TextMessage)
+				return; // ObjectMessages only
+
+			Payload payload = (Payload) ((ObjectMessage) message).getObject();
+
+			Destination replyTo = message.getJMSReplyTo();
+			if (replyTo == null) {
+				peer.deliver(payload);
+				return;
+			}
+
+			Payload reply = peer.onRequest(payload);
+			if (reply != null)
+				reply(replyTo, message.getJMSCorrelationID(), reply);
+
+		} catch (JMSException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
+	}
+}
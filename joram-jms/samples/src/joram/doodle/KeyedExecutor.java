@@ -0,0 +1,45 @@
+package doodle;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Runs tasks in a fixed number of parallel lanes. Each task is given an
+ * ordering key, and all tasks with the same key go to the same lane, where
+ * they run one at a time in the order they were posted; tasks in different
+ * lanes run concurrently. The lanes of every keyed executor share a single
+ * executor (see Threads).
+ * 
+ * @author Jonas Michel
+ * 
+ */
+public class KeyedExecutor {
+
+	/** The threads the lanes run on. */
+	private static final ExecutorService workers = Threads
+			.newExecutor("Consumer");
+
+	/** The lanes. */
+	private final SerialExecutor[] lanes;
+
+	public KeyedExecutor(int numLanes) {
+		lanes = new SerialExecutor[numLanes];
+		for (int i = 0; i < numLanes; i++)
+			lanes[i] = new SerialExecutor(workers);
+	}
+
+	/**
+	 * Posts a task to the lane of its ordering key.
+	 * 
+	 * @param key
+	 *            the task's ordering key (tasks without one share the first
+	 *            lane).
+	 * @param task
+	 *            the task to run.
+	 */
+	public void execute(String key, Runnable task) {
+		int lane = key == null ? 0 : (key.hashCode() & 0x7fffffff)
+				% lanes.length;
+
+		lanes[lane].execute(task);
+	}
+}
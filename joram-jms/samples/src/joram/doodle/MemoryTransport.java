@@ -0,0 +1,138 @@
+package doodle;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * A transport between peers in the same JVM, with no broker involved. Each
+ * listening peer registers a mailbox under its queue name; sending a payload
+ * looks up the receiving peer's mailbox and posts the payload to it, and the
+ * mailbox delivers its payloads to the peer one at a time on a shared pool of
+ * daemon threads.
+ * 
+ * Payloads are handed over by reference rather than serialized, so senders
+ * must not change a payload after sending it.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+public class MemoryTransport implements Transport {
+
+	/** The mailboxes of the listening peers in this JVM, by queue name. */
+	private static final ConcurrentMap<String, Mailbox> mailboxes = new ConcurrentHashMap<String, Mailbox>();
+
+	/** The threads mailboxes deliver their payloads on. */
+	private static final ExecutorService carriers = Threads
+			.newExecutor("MemoryTransport");
+
+	/** The name of the peer's queue. */
+	private String queueName;
+
+	/** The peer's mailbox, while the transport is listening. */
+	private volatile Mailbox mailbox;
+
+	/**
+	 * Checks whether a peer is listening on a memory transport in this JVM.
+	 * 
+	 * @param queueName
+	 *            the name of the peer's queue.
+	 * @return true if the peer is listening.
+	 */
+	public static boolean isListening(String queueName) {
+		return mailboxes.containsKey(queueName);
+	}
+
+	@Override
+	public synchronized void start(String queueName, Peer peer) {
+		if (mailbox != null)
+			return;
+
+		this.queueName = queueName;
+		mailbox = new Mailbox(peer);
+
+		// replace the mailbox of a previous session of the peer
+		mailboxes.put(queueName, mailbox);
+	}
+
+	@Override
+	public synchronized void stop() {
+		if (mailbox == null)
+			return;
+
+		mailbox.closed = true;
+		mailboxes.remove(queueName, mailbox);
+		mailbox = null;
+	}
+
+	@Override
+	public void retire(boolean keepUndelivered) {
+		// mailboxes hold nothing once stopped
+		stop();
+	}
+
+	@Override
+	public boolean isStarted() {
+		return mailbox != null;
+	}
+
+	@Override
+	public boolean send(String queueName, Payload payload) {
+		Mailbox mailbox = mailboxes.get(queueName);
+		if (mailbox == null)
+			return false; // the receiving peer is not listening
+
+		mailbox.post(payload);
+		return true;
+	}
+
+	@Override
+	public Payload request(String queueName, Payload request, long timeout) {
+		Mailbox mailbox = mailboxes.get(queueName);
+		if (mailbox == null)
+			return null; // the receiving peer is not listening
+
+		PendingReply reply = new PendingReply();
+		mailbox.request(request, reply);
+
+		return reply.await(timeout);
+	}
+
+	/**
+	 * Delivers the payloads posted to a peer, in order.
+	 */
+	private static class Mailbox {
+
+		/** The peer payloads are delivered to. */
+		private final Peer peer;
+
+		/** Runs the deliveries one at a time. */
+		private final SerialExecutor deliveries = new SerialExecutor(carriers);
+
+		/** Whether the peer stopped listening. */
+		private volatile boolean closed = false;
+
+		public Mailbox(Peer peer) {
+			this.peer = peer;
+		}
+
+		public void post(final Payload payload) {
+			deliveries.execute(new Runnable() {
+				@Override
+				public void run() {
+					if (!closed)
+						peer.deliver(payload);
+				}
+			});
+		}
+
+		public void request(final Payload request, final PendingReply reply) {
+			deliveries.execute(new Runnable() {
+				@Override
+				public void run() {
+					reply.complete(closed ? null : peer.onRequest(request));
+				}
+			});
+		}
+	}
+}
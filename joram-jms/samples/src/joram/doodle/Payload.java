@@ -16,4 +16,16 @@ public abstract class Payload implements Serializable {
 	public Payload() {
 
 	}
+
+	/**
+	 * Returns the key payloads must be processed in order by (see
+	 * Settings.CONSUMER_LANES). Payloads with different keys may be processed
+	 * concurrently by the receiving peer.
+	 * 
+	 * @return the ordering key, or null if the payload must be ordered with
+	 *         all other payloads without a key.
+	 */
+	public String getOrderingKey() {
+		return null;
+	}
 }
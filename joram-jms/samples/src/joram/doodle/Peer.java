@@ -1,35 +1,19 @@
 package doodle;
 
-import java.net.ConnectException;
-import java.net.UnknownHostException;
-
-import javax.jms.JMSException;
-import javax.jms.Message;
-import javax.jms.MessageListener;
-import javax.jms.QueueConnection;
-import javax.jms.QueueConnectionFactory;
-import javax.jms.QueueReceiver;
-import javax.jms.QueueSender;
-import javax.jms.QueueSession;
-import javax.naming.InitialContext;
-import javax.naming.NamingException;
-
-import org.objectweb.joram.client.jms.Queue;
-import org.objectweb.joram.client.jms.admin.AdminException;
-import org.objectweb.joram.client.jms.admin.AdminModule;
-
 /**
  * Peers are the networked objects in our doodle system. The peer class defines
  * the bare minimum functionality of an independent communicating process in our
  * system.
  * 
  * Most importantly, each peer exposes a "listening" queue, which may be used by
- * other peers to send this peer notifications, messages, etc.
+ * other peers to send this peer notifications, messages, etc. How payloads
+ * travel between queues is up to the peer's transport (see
+ * Settings.TRANSPORT).
  * 
  * @author Jonas Michel
  * 
  */
-public abstract class Peer implements MessageListener {
+public abstract class Peer {
 	/** The name that identifies this peer. */
 	protected String name;
 
@@ -41,25 +25,28 @@ public abstract class Peer implements MessageListener {
 		USER, POLL
 	};
 
-	/** Persistent JMS communication constructs. */
-	protected InitialContext context;
-	protected QueueConnection connection;
+	/** Moves payloads to and from the peer's listening queue. */
+	protected Transport transport;
 
-	/** A peer receives messages on a dedicated queue. */
-	protected QueueSession listeningSession;
-	protected Queue listeningQueue;
-	protected QueueReceiver listeningReceiver;
+	/**
+	 * Processes the peer's payloads in parallel lanes, keyed by the payloads'
+	 * ordering keys (null if payloads are processed one at a time).
+	 */
+	private KeyedExecutor consumers = Settings.CONSUMER_LANES > 1 ? new KeyedExecutor(
+			Settings.CONSUMER_LANES) : null;
 
 	/** The listening queue naming prefix. */
 	public static final String QUEUE_PREFIX = "doodle_queue";
 
 	public Peer(Role role) {
 		this.role = role;
+		this.transport = createTransport();
 	}
 	
 	public Peer(String name, Role role) {
 		this.name = name;
 		this.role = role;
+		this.transport = createTransport();
 
 		setup();
 	}
@@ -71,70 +58,51 @@ public abstract class Peer implements MessageListener {
 	}
 
 	/**
-	 * Initializes the peer's JMS constructs and listening queue.
+	 * Creates the transport configured by Settings.TRANSPORT.
+	 * 
+	 * @return a new transport.
+	 */
+	public static Transport createTransport() {
+		if (Settings.TRANSPORT.equals(Settings.TRANSPORT_MEMORY))
+			return new MemoryTransport();
+		else if (Settings.TRANSPORT.equals(Settings.TRANSPORT_HYBRID))
+			return new HybridTransport();
+		else
+			return new JmsTransport();
+	}
+
+	/**
+	 * Starts listening on the peer's queue.
 	 */
 	protected void setup() {
-		try {
-			AdminModule.connect();
-
-			context = new InitialContext();
-			QueueConnectionFactory qcf = (QueueConnectionFactory) context
-					.lookup(DoodleAdmin.QUEUE_CONNECTION_FACTORY);
-
-			connection = qcf.createQueueConnection();
-
-			listeningSession = connection.createQueueSession(false,
-					QueueSession.AUTO_ACKNOWLEDGE);
-
-			listeningQueue = Queue.create(getQueueName(name, role));
-			listeningQueue.setFreeReading();
-			listeningQueue.setFreeWriting();
-
-			context.bind(getQueueName(name, role), listeningQueue);
-
-			listeningReceiver = listeningSession.createReceiver(listeningQueue);
-			listeningReceiver.setMessageListener(this);
-
-			connection.start();
-
-			AdminModule.disconnect();
-
-		} catch (NamingException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		} catch (JMSException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		} catch (ConnectException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		} catch (UnknownHostException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		} catch (AdminException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
+		transport.start(getQueueName(name, role), this);
 	}
 
 	/**
-	 * Shuts down the peer.
+	 * Checks whether the peer is listening on its queue.
+	 * 
+	 * @return true if the peer is started.
+	 */
+	public boolean isStarted() {
+		return transport.isStarted();
+	}
+
+	/**
+	 * Shuts down the peer, releasing its transport. Does nothing if the peer
+	 * was never started.
 	 */
 	protected void stop() {
-		try {
-			listeningReceiver.close();
-			connection.stop();
-			listeningSession.close();
-			connection.close();
-			context.close();
-
-		} catch (JMSException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		} catch (NamingException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
+		transport.stop();
+	}
+
+	/**
+	 * Shuts down the peer for good and reclaims its listening queue, unless
+	 * another peer in this JVM still listens on it or the queue was provisioned
+	 * by the administration. A user's queue is kept if it holds undelivered
+	 * messages, so they reach the user's next session.
+	 */
+	protected void retire() {
+		transport.retire(role == Role.USER);
 	}
 
 	/**
@@ -149,35 +117,24 @@ public abstract class Peer implements MessageListener {
 	 * @return true if the message was delivered successfully, false otherwise.
 	 */
 	protected boolean send(String name, Role role, Payload payload) {
-		try {
-			// create a session to send the message
-			QueueSession session = connection.createQueueSession(false,
-					QueueSession.AUTO_ACKNOWLEDGE);
-
-			// lookup the receiving peer's listening queue
-			Queue queue = (Queue) context.lookup(getQueueName(name, role));
-
-			// make sender
-			QueueSender sender = session.createSender(queue);
-
-			Message message = session.createObjectMessage(payload);
-			sender.send(message);
-
-			// close the session
-			session.close();
-
-			return true;
-
-		} catch (NamingException e) {
-			// the receiving peer's queue does not exist
-			return false;
-
-		} catch (JMSException e) {
-			// some other error occurred
-			e.printStackTrace();
+		return transport.send(getQueueName(name, role), payload);
+	}
 
-			return false;
-		}
+	/**
+	 * Sends a request to a peer with the provided name and role and waits for
+	 * its reply, at most Settings.REQUEST_TIMEOUT milliseconds.
+	 * 
+	 * @param name
+	 *            the name of the receiver.
+	 * @param role
+	 *            the role of the receiver.
+	 * @param request
+	 *            the request to send.
+	 * @return the reply, or null if there was none.
+	 */
+	protected Payload request(String name, Role role, Payload request) {
+		return transport.request(getQueueName(name, role), request,
+				Settings.REQUEST_TIMEOUT);
 	}
 
 	/**
@@ -194,10 +151,47 @@ public abstract class Peer implements MessageListener {
 	}
 
 	/**
-	 * This method will be called when a message arrives on the peer's listening
-	 * queue.
+	 * This method will be called when a payload arrives on the peer's
+	 * listening queue.
+	 * 
+	 * @param payload
+	 *            the payload.
 	 */
-	@Override
-	public abstract void onMessage(Message message);
+	public abstract void onPayload(Payload payload);
+
+	/**
+	 * Hands a payload that arrived on the peer's listening queue to onPayload.
+	 * Transports call this rather than onPayload. Payloads with the same
+	 * ordering key are processed in the order they arrived; with several
+	 * consumer lanes, payloads with different keys are processed concurrently.
+	 * 
+	 * @param payload
+	 *            the payload.
+	 */
+	public void deliver(final Payload payload) {
+		if (consumers == null) {
+			onPayload(payload);
+			return;
+		}
+
+		consumers.execute(payload.getOrderingKey(), new Runnable() {
+			@Override
+			public void run() {
+				onPayload(payload);
+			}
+		});
+	}
+
+	/**
+	 * This method will be called when a request arrives on the peer's
+	 * listening queue. Peers that serve requests override it.
+	 * 
+	 * @param request
+	 *            the request.
+	 * @return the reply, or null if the peer has none.
+	 */
+	public Payload onRequest(Payload request) {
+		return null;
+	}
 
 }
@@ -0,0 +1,49 @@
+package doodle;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A reply a requesting peer is waiting for.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+public class PendingReply {
+
+	/** Released once the reply arrives. */
+	private final CountDownLatch arrived = new CountDownLatch(1);
+
+	/** The reply. */
+	private volatile Payload reply;
+
+	/**
+	 * Hands the reply to the waiting requester.
+	 * 
+	 * @param reply
+	 *            the reply (null if the peer had none).
+	 */
+	public void complete(Payload reply) {
+		this.reply = reply;
+		arrived.countDown();
+	}
+
+	/**
+	 * Waits for the reply.
+	 * 
+	 * @param timeout
+	 *            the maximum time to wait, in milliseconds.
+	 * @return the reply, or null if it did not arrive in time.
+	 */
+	public Payload await(long timeout) {
+		try {
+			if (arrived.await(timeout, TimeUnit.MILLISECONDS))
+				return reply;
+
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		return null;
+	}
+}
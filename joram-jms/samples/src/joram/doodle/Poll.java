@@ -1,18 +1,18 @@
 package doodle;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-
-import javax.jms.JMSException;
-import javax.jms.Message;
-import javax.jms.ObjectMessage;
-
-import org.objectweb.joram.client.jms.TextMessage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 import doodle.TimeSlot.TimeSlotComparator;
 
@@ -27,10 +27,27 @@ import doodle.TimeSlot.TimeSlotComparator;
  * with identical names -- i.e., a poll's initiator-title combination is a
  * unique identifier in the doodle poll system.
  * 
+ * A poll's state is changed by a single writer: every event (a payload, a
+ * closing, a timer) is posted to the poll's mailbox, which runs the events
+ * one at a time on a small pool of carrier threads shared by all polls. After
+ * each change the poll publishes an immutable snapshot of its status, which
+ * other threads read without taking any lock.
+ * 
  * @author Jonas Michel
  * 
  */
 public class Poll extends Peer {
+	/** The threads the polls' mailboxes are drained on. */
+	private static final ExecutorService carriers = Threads.newFixedExecutor(
+			"PollCarrier", Settings.POLL_CARRIERS);
+
+	/**
+	 * Sends the polls' updates to their invitees, so a poll with many or slow
+	 * invitees does not hold a carrier while its updates are sent.
+	 */
+	private static final ExecutorService senders = Threads.newFixedExecutor(
+			"PollSender", Settings.POLL_SENDERS);
+
 	/** The poll's title. */
 	private String title;
 
@@ -42,51 +59,596 @@ public class Poll extends Peer {
 
 	/**
 	 * Holds the user names of poll invitees with pending (undelivered) poll
-	 * messages.
+	 * messages (changed by the poll's events only, and concurrent so other
+	 * threads can read it).
 	 */
 	private Set<String> pending;
 
 	/** Holds the proposed time slots and invitees' responses. */
 	private Map<TimeSlot, List<Response>> responses;
 
+	/** Numbers the invitees, for the bitset of non-responders. */
+	private Map<String, Integer> inviteeIds;
+	private String[] inviteeNames;
+
+	/**
+	 * The ids of the invitees that have not responded yet, kept current as
+	 * responses arrive.
+	 */
+	private BitSet unanswered;
+
 	/** The poll's final time slot, null until chosen by the initiator. */
-	private TimeSlot timeSlot = null;
+	private volatile TimeSlot timeSlot = null;
+
+	/**
+	 * The poll's version, incremented on every change. The high bits hold the
+	 * restart epoch of the session the poll was created or restored in (see
+	 * getBaseVersion).
+	 */
+	private long version;
+
+	/** The time the poll closes automatically (0 if it has no deadline). */
+	private volatile long deadline = 0;
+
+	/** Chooses the final time slot when the deadline passes. */
+	private volatile ClosingPolicy policy = null;
+
+	/** The poll's pending automatic closing on the timer wheel. */
+	private TimerWheel.Timeout closing = null;
+
+	/** The poll's pending reminders on the timer wheel. */
+	private List<TimerWheel.Timeout> reminders = new ArrayList<TimerWheel.Timeout>();
+
+	/** Closes the poll early once met (null if none). */
+	private volatile CloseCondition condition = null;
+
+	/**
+	 * The running tallies the close condition is evaluated against: the time
+	 * slots each responder voted yes on, the number of
+	 * yes votes on each time slot, the number of time slots with enough yes
+	 * votes, and the number of required invitees that have not responded.
+	 */
+	private Map<String, Set<TimeSlot>> yesVotes;
+	private Map<TimeSlot, Integer> yesCounts;
+	private int slotsAtQuorum;
+	private int requiredMissing;
+
+	/** Whether the close condition was met. */
+	private boolean conditionMet = false;
 
 	/** We make calls on the callback. */
 	private PollDelegate delegate;
 
+	/** Records the poll's events durably (may be null). */
+	private PollJournal journal;
+
+	/** Runs the poll's events one at a time. */
+	private final SerialExecutor mailbox = new SerialExecutor(carriers);
+
+	/** The thread running one of the poll's events (null between events). */
+	private volatile Thread actor = null;
+
+	/** The poll's status as of its last change, for other threads to read. */
+	private volatile PollStatusPayload published;
+
 	public Poll(String title, String initiator, Set<String> invitees,
-			List<TimeSlot> timeSlots, PollDelegate delegate) {
-		super(new PollKey(title, initiator).toString(), Role.POLL);
+			List<TimeSlot> timeSlots, PollDelegate delegate, PollJournal journal) {
+		super(Role.POLL);
 
 		this.delegate = delegate;
+		this.journal = journal;
 
 		this.title = title;
 		this.initiator = initiator;
 		this.invitees = invitees;
+		version = getBaseVersion(journal) + 1;
 
-		pending = new HashSet<String>();
+		pending = Collections
+				.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 		responses = new ConcurrentHashMap<TimeSlot, List<Response>>();
 		for (TimeSlot timeSlot : timeSlots)
 			responses.put(timeSlot, new ArrayList<Response>());
+		indexInvitees();
+		publish();
+
+		if (journal != null)
+			journal.open(title, initiator, invitees, timeSlots);
+
+		// listen only once the poll is ready for its first payload (the queue
+		// may already hold responses, e.g., for a reopened title)
+		start(new PollKey(title, initiator).toString());
+
+		post(new Runnable() {
+			@Override
+			public void run() {
+				update();
+			}
+		});
+	}
+
+	/**
+	 * Restores a poll from its journaled state. The restored poll is detached:
+	 * its listening queue is not re-registered until {@link #attach()} is
+	 * called, so restoring a large number of polls is cheap. If it is unknown
+	 * which updates reached the invitees before the restart, every invitee is
+	 * considered to have pending poll state.
+	 * 
+	 * @param record
+	 *            the poll's recovered state.
+	 * @param delegate
+	 *            the poll's delegate.
+	 * @param journal
+	 *            the journal to record further events in (may be null).
+	 */
+	public Poll(PollRecord record, PollDelegate delegate, PollJournal journal) {
+		super(Role.POLL);
+
+		this.delegate = delegate;
+		this.journal = journal;
+
+		title = record.getTitle();
+		initiator = record.getInitiator();
+		invitees = record.getInvitees();
+		responses = record.getResponses();
+		timeSlot = record.getTimeSlot();
+		// a version broadcast before a crash may never have been journaled,
+		// so skip past every version of the earlier sessions
+		version = Math.max(record.getVersion(), getBaseVersion(journal));
+		deadline = record.getDeadline();
+		policy = record.getPolicy();
+		indexInvitees();
+		if (record.getCloseCondition() != null) {
+			condition = record.getCloseCondition();
+			resetTallies();
+		}
+		publish();
+
+		pending = Collections
+				.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+		Set<String> undelivered = record.getPending() == null ? invitees
+				: record.getPending();
+		for (String invitee : undelivered)
+			recordDelivery(invitee, false);
+	}
+
+	/**
+	 * Returns the lowest version of a poll in the current session: the
+	 * journal's restart epoch in the high bits (0 without a journal).
+	 * 
+	 * @param journal
+	 *            the initiator's journal (may be null).
+	 * @return the session's base version.
+	 */
+	private static long getBaseVersion(PollJournal journal) {
+		return journal == null ? 0 : journal.getEpoch() << Settings.EPOCH_SHIFT;
+	}
+
+	/**
+	 * Numbers the invitees and finds those that have not responded yet. This
+	 * is the only time the responses are scanned for non-responders.
+	 */
+	private void indexInvitees() {
+		inviteeIds = new HashMap<String, Integer>();
+		inviteeNames = invitees.toArray(new String[invitees.size()]);
+		for (int i = 0; i < inviteeNames.length; i++)
+			inviteeIds.put(inviteeNames[i], i);
+
+		unanswered = new BitSet(inviteeNames.length);
+		unanswered.set(0, inviteeNames.length);
+		for (List<Response> rr : responses.values()) {
+			for (Response r : rr) {
+				Integer id = inviteeIds.get(r.getResponder());
+				if (id != null)
+					unanswered.clear(id);
+			}
+		}
+	}
+
+	/**
+	 * Posts an event to the poll's mailbox. The poll's events run one at a
+	 * time, in the order they were posted.
+	 * 
+	 * @param event
+	 *            the event.
+	 */
+	private void post(final Runnable event) {
+		mailbox.execute(new Runnable() {
+			@Override
+			public void run() {
+				actor = Thread.currentThread();
+				try {
+					event.run();
+				} finally {
+					actor = null;
+				}
+			}
+		});
+	}
+
+	/**
+	 * Posts an event to the poll's mailbox and waits for it to run. An event
+	 * posted by one of the poll's own events runs right away.
+	 * 
+	 * @param event
+	 *            the event.
+	 */
+	private void call(Runnable event) {
+		if (actor == Thread.currentThread()) {
+			event.run();
+			return;
+		}
+
+		FutureTask<Void> task = new FutureTask<Void>(event, null);
+		post(task);
+
+		boolean interrupted = false;
+		while (true) {
+			try {
+				task.get();
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true; // the event is already on its way
+			} catch (ExecutionException e) {
+				// TODO Auto-generated catch block
+				e.printStackTrace();
+				break;
+			}
+		}
+
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	/**
+	 * Publishes the poll's current status to other threads (called by the
+	 * poll's events after every change).
+	 */
+	private void publish() {
+		published = new PollStatusPayload(title, initiator, responses,
+				timeSlot, version);
+	}
+
+	/**
+	 * Returns the invitees that have not responded to the poll yet.
+	 * 
+	 * @return the user names of the non-responders.
+	 */
+	public Set<String> getNonResponders() {
+		final Set<String> names = new HashSet<String>();
+		call(new Runnable() {
+			@Override
+			public void run() {
+				for (int id = unanswered.nextSetBit(0); id >= 0; id = unanswered
+						.nextSetBit(id + 1))
+					names.add(inviteeNames[id]);
+			}
+		});
+
+		return names;
+	}
+
+	/**
+	 * Registers a restored poll's listening queue so that it may receive
+	 * responses again, and schedules its deadline. Does nothing if the queue
+	 * is already registered.
+	 */
+	public void attach() {
+		if (!isStarted())
+			start(new PollKey(title, initiator).toString());
+
+		post(new Runnable() {
+			@Override
+			public void run() {
+				if (closing == null)
+					schedule();
+
+				// the condition may have been met just before the last shutdown
+				if (checkCondition())
+					closeEarly();
+			}
+		});
+	}
+
+	/**
+	 * Detaches the poll from the doodle system when its initiator goes
+	 * offline: cancels the poll's timers and stops listening, but keeps the
+	 * poll's queue so the responses sent meanwhile reach the poll once it is
+	 * restored and attached again.
+	 * Returns once the payloads already delivered to the poll have been
+	 * processed (and journaled), so the journal can be shut down.
+	 */
+	public void detach() {
+		stop();
+
+		// runs after every event posted so far
+		call(new Runnable() {
+			@Override
+			public void run() {
+				cancel();
+			}
+		});
+	}
+
+	/**
+	 * Captures the poll's current state.
+	 * 
+	 * @return a record of the poll's state.
+	 */
+	public PollRecord toRecord() {
+		PollStatusPayload status = published;
+		PollRecord record = new PollRecord(title, initiator, invitees,
+				status.getResponses(), status.getTimeSlot(),
+				new HashSet<String>(pending), status.getVersion());
+
+		if (deadline > 0)
+			record.setDeadline(deadline, policy);
+		if (condition != null)
+			record.setCloseCondition(condition);
+
+		return record;
+	}
+
+	/**
+	 * Sets a deadline at which the poll closes automatically, with the time
+	 * slot chosen by a closing policy.
+	 * 
+	 * @param deadline
+	 *            the time the poll closes, in milliseconds since the epoch.
+	 * @param policy
+	 *            chooses the final time slot.
+	 */
+	public void setDeadline(final long deadline, final ClosingPolicy policy) {
+		call(new Runnable() {
+			@Override
+			public void run() {
+				Poll.this.deadline = deadline;
+				Poll.this.policy = policy;
+
+				if (journal != null)
+					journal.deadline(title, deadline, policy);
+
+				schedule();
+			}
+		});
+	}
+
+	public long getDeadline() {
+		return deadline;
+	}
+
+	/**
+	 * Attaches a condition that closes the poll early once met. The poll
+	 * closes right away if the condition is already met.
+	 * 
+	 * @param condition
+	 *            the close condition.
+	 */
+	public void setCloseCondition(final CloseCondition condition) {
+		call(new Runnable() {
+			@Override
+			public void run() {
+				Poll.this.condition = condition;
+				resetTallies();
+
+				if (journal != null)
+					journal.condition(title, condition);
+
+				if (checkCondition())
+					closeEarly();
+			}
+		});
+	}
+
+	/**
+	 * Rebuilds the close condition's running tallies from the responses. This
+	 * is the only time the responses are scanned for the condition.
+	 */
+	private void resetTallies() {
+		yesVotes = new HashMap<String, Set<TimeSlot>>();
+		yesCounts = new HashMap<TimeSlot, Integer>();
+		slotsAtQuorum = 0;
+		for (Map.Entry<TimeSlot, List<Response>> entry : responses.entrySet()) {
+			int yes = 0;
+			for (Response response : entry.getValue()) {
+				if (response.getChoice() != Response.Choice.YES)
+					continue;
+
+				yes++;
+				Set<TimeSlot> slots = yesVotes.get(response.getResponder());
+				if (slots == null) {
+					slots = new HashSet<TimeSlot>();
+					yesVotes.put(response.getResponder(), slots);
+				}
+				slots.add(entry.getKey());
+			}
+
+			yesCounts.put(entry.getKey(), yes);
+			if (yes >= condition.getMinYes())
+				slotsAtQuorum++;
+		}
+
+		requiredMissing = 0;
+		for (String name : condition.getRequired()) {
+			Integer id = inviteeIds.get(name);
+			if (id != null && unanswered.get(id))
+				requiredMissing++; // required non-invitees are ignored
+		}
+	}
+
+	/**
+	 * Updates the close condition's running tallies with a response, in time
+	 * proportional to the number of time slots the response covers.
+	 * 
+	 * @param responder
+	 *            the responder's user name.
+	 * @param choices
+	 *            the responder's choice for each time slot.
+	 * @param first
+	 *            whether this is the responder's first response.
+	 */
+	private void tally(String responder, Map<TimeSlot, Response> choices,
+			boolean first) {
+		Set<TimeSlot> slots = yesVotes.get(responder);
+		if (slots == null) {
+			slots = new HashSet<TimeSlot>();
+			yesVotes.put(responder, slots);
+		}
+
+		for (Map.Entry<TimeSlot, Response> entry : choices.entrySet()) {
+			Integer yes = yesCounts.get(entry.getKey());
+			if (yes == null)
+				continue; // not one of the poll's time slots
+
+			boolean wasYes = slots.contains(entry.getKey());
+			boolean isYes = entry.getValue().getChoice() == Response.Choice.YES;
+			if (wasYes == isYes)
+				continue;
+
+			int minYes = condition.getMinYes();
+			if (isYes) {
+				slots.add(entry.getKey());
+				if (++yes == minYes)
+					slotsAtQuorum++;
+			} else {
+				slots.remove(entry.getKey());
+				if (yes-- == minYes)
+					slotsAtQuorum--;
+			}
+			yesCounts.put(entry.getKey(), yes);
+		}
 
-		update();
+		if (first && condition.getRequired().contains(responder))
+			requiredMissing--;
+	}
+
+	/**
+	 * Checks whether the close condition was just met.
+	 * 
+	 * @return true the first time the condition is found met.
+	 */
+	private boolean checkCondition() {
+		if (condition == null || conditionMet || isClosed())
+			return false;
+
+		conditionMet = slotsAtQuorum > 0 && requiredMissing == 0;
+		return conditionMet;
+	}
+
+	/**
+	 * Closes the poll once its close condition is met, with the time slot its
+	 * closing policy chooses among the time slots with enough yes votes. The
+	 * delegate closes the poll in a later event, once the event that met the
+	 * condition is done.
+	 */
+	private void closeEarly() {
+		Map<TimeSlot, List<Response>> candidates = new HashMap<TimeSlot, List<Response>>();
+		for (Map.Entry<TimeSlot, Integer> entry : yesCounts.entrySet()) {
+			if (entry.getValue() >= condition.getMinYes())
+				candidates.put(entry.getKey(), responses.get(entry.getKey()));
+		}
+
+		ClosingPolicy chooser = policy != null ? policy : ClosingPolicy
+				.requiredAttendees(condition.getRequired());
+		final TimeSlot timeSlot = chooser.choose(candidates);
+
+		delegate.pollActivity(title, "Close condition met ("
+				+ condition.toString() + ")");
+
+		post(new Runnable() {
+			@Override
+			public void run() {
+				delegate.pollDue(title, timeSlot);
+			}
+		});
+	}
+
+	/**
+	 * Schedules the poll's automatic closing, and the reminders sent to the
+	 * non-responders ahead of it (Settings.REMINDER_OFFSETS before the
+	 * deadline), on the shared timer wheel. The timers post their events to
+	 * the poll's mailbox.
+	 */
+	private void schedule() {
+		cancel();
+
+		if (deadline <= 0 || isClosed())
+			return;
+
+		TimerWheel wheel = TimerWheel.getDefault();
+		closing = wheel.schedule(new Runnable() {
+			@Override
+			public void run() {
+				post(new Runnable() {
+					@Override
+					public void run() {
+						expire();
+					}
+				});
+			}
+		}, deadline);
+
+		long now = System.currentTimeMillis();
+		for (long offset : Settings.REMINDER_OFFSETS) {
+			if (deadline - offset <= now)
+				continue; // too late for this reminder
+
+			reminders.add(wheel.schedule(new Runnable() {
+				@Override
+				public void run() {
+					if (!isClosed())
+						delegate.pollReminderDue(Poll.this);
+				}
+			}, deadline - offset));
+		}
+	}
+
+	/**
+	 * Cancels the poll's scheduled closing and reminders.
+	 */
+	private void cancel() {
+		if (closing != null)
+			closing.cancel();
+		closing = null;
+
+		for (TimerWheel.Timeout reminder : reminders)
+			reminder.cancel();
+		reminders.clear();
+	}
+
+	/**
+	 * Called when the poll's deadline passes. The delegate closes the poll
+	 * with the time slot chosen by the poll's closing policy.
+	 */
+	private void expire() {
+		if (isClosed() || closing == null)
+			return; // closed, or the timers were cancelled meanwhile
+
+		delegate.pollDue(title, policy.choose(responses));
+	}
+
+	public String getInitiator() {
+		return initiator;
 	}
 
 	public String getTitle() {
 		return title;
 	}
 
-	public Map<TimeSlot, List<Response>> getResponses() {
-		return responses;
+	public Set<String> getInvitees() {
+		return invitees;
 	}
 
-	public synchronized TimeSlot getTimeSlot() {
-		return timeSlot;
+	/**
+	 * Returns the poll's responses as of its last change.
+	 * 
+	 * @return a snapshot of the poll's responses.
+	 */
+	public Map<TimeSlot, List<Response>> getResponses() {
+		return published.getResponses();
 	}
 
-	public synchronized void setTimeSlot(TimeSlot timeSlot) {
-		this.timeSlot = timeSlot;
+	public TimeSlot getTimeSlot() {
+		return timeSlot;
 	}
 
 	public boolean isClosed() {
@@ -189,6 +751,35 @@ public class Poll extends Peer {
 		return sb.toString();
 	}
 
+	/**
+	 * Adds a responder's choices to a poll's responses, replacing any earlier
+	 * choices by the same responder (an invitee may only respond once). The
+	 * responses are not locked: they must only be changed by their owner
+	 * (the poll's events, or a journal replay), and other threads read the
+	 * copies published in the poll's status.
+	 * 
+	 * @param responses
+	 *            a poll's responses.
+	 * @param responder
+	 *            the responder's user name.
+	 * @param choices
+	 *            the responder's choice for each time slot.
+	 */
+	public static void applyResponses(Map<TimeSlot, List<Response>> responses,
+			String responder, Map<TimeSlot, Response> choices) {
+		for (Map.Entry<TimeSlot, Response> entry : choices.entrySet()) {
+			List<Response> slotResponses = responses.get(entry.getKey());
+			if (slotResponses == null)
+				continue; // not one of the poll's time slots
+
+			for (int i = slotResponses.size() - 1; i >= 0; i--) {
+				if (slotResponses.get(i).getResponder().equals(responder))
+					slotResponses.remove(i);
+			}
+			slotResponses.add(entry.getValue());
+		}
+	}
+
 	/**
 	 * Calculates the current number of poll responses.
 	 * 
@@ -267,110 +858,291 @@ public class Poll extends Peer {
 		return new float[] { yes, maybe, no, na, score };
 	}
 
+	/**
+	 * Returns a snapshot of the poll's current status and responses.
+	 * 
+	 * @return the poll's status payload.
+	 */
+	public PollStatusPayload getStatus() {
+		return published;
+	}
+
+	/**
+	 * Returns a summary of the poll's current status, without the responses.
+	 * 
+	 * @return the poll's summary status payload.
+	 */
+	public PollStatusPayload getSummary() {
+		PollStatusPayload status = published;
+		return PollStatusPayload.summarize(title, initiator,
+				status.getResponses(), status.getTimeSlot(),
+				status.getVersion());
+	}
+
+	/**
+	 * Returns the status pushed to invitees when the poll's responses change:
+	 * a summary if the push mode is Settings.PUSH_SUMMARY, the full status
+	 * otherwise.
+	 * 
+	 * @return the poll's update payload.
+	 */
+	public PollStatusPayload getUpdate() {
+		if (Settings.PUSH_MODE.equals(Settings.PUSH_SUMMARY))
+			return getSummary();
+
+		return getStatus();
+	}
+
 	/**
 	 * Updates all invitees with the poll's current status and responses.
+	 * 
+	 * @return the sends, one per invitee.
 	 */
-	private void update() {
-		Payload payload = null;
-		synchronized (responses) {
-			payload = new PollStatusPayload(title, initiator, responses,
-					getTimeSlot());
+	private List<Future<?>> update() {
+		return update(false);
+	}
+
+	/**
+	 * Updates all invitees with the poll's current status. The sends run on
+	 * the sender threads, and each outcome is posted back to the poll's
+	 * mailbox (invitees ignore a status older than the one they hold, so the
+	 * sends need not arrive in order).
+	 * 
+	 * @param summarize
+	 *            whether a summary may be sent instead of the full status (see
+	 *            getUpdate).
+	 * @return the sends, one per invitee.
+	 */
+	private List<Future<?>> update(boolean summarize) {
+		final Payload payload = summarize ? getUpdate() : getStatus();
+
+		List<Future<?>> sends = new ArrayList<Future<?>>();
+		for (final String user : invitees) {
+			sends.add(senders.submit(new Runnable() {
+				@Override
+				public void run() {
+					final boolean success = send(user, Role.USER, payload);
+
+					post(new Runnable() {
+						@Override
+						public void run() {
+							recordDelivery(user, success);
+						}
+					});
+				}
+			}));
 		}
 
-		for (String user : invitees) {
-			boolean success = send(user, Role.USER, payload);
+		return sends;
+	}
 
-			// add this user to the pending set if the message was undeliverable
-			synchronized (pending) {
-				if (!success)
-					pending.add(user);
-				else if (pending.contains(user))
-					pending.remove(user);
+	/**
+	 * Waits for a poll update's sends to complete.
+	 * 
+	 * @param sends
+	 *            the sends.
+	 */
+	private static void await(List<Future<?>> sends) {
+		for (Future<?> send : sends) {
+			try {
+				send.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (ExecutionException e) {
+				// TODO Auto-generated catch block
+				e.printStackTrace();
 			}
 		}
 	}
 
 	/**
-	 * Updates a particular invitee with the poll's current status and
-	 * responses.
+	 * Records the outcome of delivering the poll's status to an invitee, as
+	 * one of the poll's events. This is called by the poll's initiator after
+	 * catching an invitee up on its pending polls (and by its digest), and
+	 * returns once the outcome is recorded.
+	 * 
+	 * @param user
+	 *            the invitee.
+	 * @param success
+	 *            true if the status was delivered, false otherwise.
+	 */
+	public void delivered(final String user, final boolean success) {
+		call(new Runnable() {
+			@Override
+			public void run() {
+				recordDelivery(user, success);
+			}
+		});
+	}
+
+	/**
+	 * Records the outcome of delivering the poll's status to an invitee.
+	 * Called by the poll's events only (e.g., after each broadcast).
 	 * 
 	 * @param user
-	 *            the user to update.
+	 *            the invitee.
+	 * @param success
+	 *            true if the status was delivered, false otherwise.
 	 */
-	public void update(String user) {
+	private void recordDelivery(String user, boolean success) {
 		if (!invitees.contains(user))
 			return;
 
-		// alert the delegate
-		delegate.pollActivity(user,
-				"Invited user [] just came online and is being updated");
-
-		Payload payload = null;
-		synchronized (responses) {
-			payload = new PollStatusPayload(title, initiator, responses,
-					getTimeSlot());
-		}
-
-		boolean success = send(user, Role.USER, payload);
-
 		// add this user to the pending set if the message was undeliverable
-		synchronized (pending) {
-			if (!success)
-				pending.add(user);
-			else if (pending.contains(user))
-				pending.remove(user);
-		}
+		boolean changed;
+		if (!success)
+			changed = pending.add(user);
+		else
+			changed = pending.remove(user);
+
+		// keep the delegate's view of undelivered poll state current (the
+		// delegate may have dropped the user while attempting a catch-up)
+		if (!success)
+			delegate.pollPending(title, user);
+		else if (changed)
+			delegate.pollDelivered(title, user);
+	}
+
+	/**
+	 * Checks whether an invitee has undelivered poll state.
+	 * 
+	 * @param user
+	 *            the invitee.
+	 * @return true if the invitee's view of the poll is out of date.
+	 */
+	public boolean isPending(String user) {
+		return pending.contains(user);
 	}
 
 	/**
 	 * Closes the poll notifying invitees of the finalized time slot (chosen by
-	 * the poll initiator).
+	 * the poll initiator). Returns once the invitees have been notified.
 	 * 
 	 * @param timeSlot
 	 *            the final time slot chosen by the poll initiator.
 	 */
-	public void close(TimeSlot timeSlot) {
-		setTimeSlot(timeSlot);
-		update();
-		delegate.pollActivity(title,
-				"Closed with final time slot [" + timeSlot.toString() + "]");
+	public void close(final TimeSlot timeSlot) {
+		final List<Future<?>> sends = new ArrayList<Future<?>>();
+		call(new Runnable() {
+			@Override
+			public void run() {
+				cancel();
+
+				Poll.this.timeSlot = timeSlot;
+				version++;
+				publish();
+
+				if (journal != null)
+					journal.close(title, timeSlot);
+
+				sends.addAll(update());
+				delegate.pollActivity(title, "Closed with final time slot ["
+						+ timeSlot.toString() + "]");
+			}
+		});
+
+		// the initiator retires the poll's transport once this returns
+		await(sends);
 	}
 
+	/**
+	 * Posts a payload that arrived on the poll's listening queue to the
+	 * poll's mailbox (whatever the number of consumer lanes, since a poll
+	 * processes its events one at a time).
+	 * 
+	 * The transport acknowledges the payload once it is posted, before the
+	 * poll has applied and journaled it: a payload still in the mailbox is
+	 * lost if the process dies. The initiator detaches its polls, which
+	 * drains their mailboxes, before it shuts down the journal.
+	 */
 	@Override
-	public void onMessage(Message message) {
-		try {
-			if (message instanceof TextMessage)
-				return; // ObjectMessages only
+	public void deliver(final Payload payload) {
+		post(new Runnable() {
+			@Override
+			public void run() {
+				onPayload(payload);
+			}
+		});
+	}
 
-			Payload payload = (Payload) ((ObjectMessage) message).getObject();
-			if (!(payload instanceof PollResponsePayload))
-				return; // poll peers only receive PollResponse messages
+	@Override
+	public void onPayload(Payload payload) {
+		if (payload instanceof PollSyncPayload) {
+			sync((PollSyncPayload) payload);
+			return;
+		}
 
-			if (isClosed())
-				return;
+		if (!(payload instanceof PollResponsePayload))
+			return; // poll peers only receive PollResponse messages
 
-			// update the poll's responses
-			Map<TimeSlot, Response> userResponses = ((PollResponsePayload) payload)
-					.getResponses();
-			synchronized (responses) {
-				for (Map.Entry<TimeSlot, Response> entry : userResponses
-						.entrySet()) {
-					responses.get(entry.getKey()).add(entry.getValue());
-				}
-			}
+		if (isClosed())
+			return;
 
-			// broadcast update to poll's invitees
-			update();
+		// update the poll's responses
+		String responder = ((PollResponsePayload) payload).getResponder();
+		Map<TimeSlot, Response> userResponses = ((PollResponsePayload) payload)
+				.getResponses();
+		applyResponses(responses, responder, userResponses);
+		version++;
 
-			// alert the delegate
-			delegate.pollActivity(title, "Received response from ["
-					+ ((PollResponsePayload) payload).getResponder() + "]");
+		Integer id = inviteeIds.get(responder);
+		boolean first = id != null && unanswered.get(id);
+		if (id != null)
+			unanswered.clear(id);
 
-		} catch (JMSException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
+		if (condition != null)
+			tally(responder, userResponses, first);
+		boolean met = checkCondition();
+
+		// publish before journaling, so a snapshot taken once the response is
+		// committed includes it
+		publish();
+
+		// record the response before any invitee learns of it
+		if (journal != null)
+			journal.respond(title, responder, userResponses);
+
+		// broadcast update to poll's invitees, unless the delegate batches it
+		if (!delegate.pollUpdated(this))
+			update(true);
+
+		// alert the delegate
+		delegate.pollResponded(title, responder);
+
+		if (met)
+			closeEarly();
+	}
+
+	@Override
+	public Payload onRequest(Payload request) {
+		if (!(request instanceof PollDetailsRequestPayload))
+			return null; // poll peers only serve PollDetailsRequests
+
+		if (!invitees.contains(((PollDetailsRequestPayload) request)
+				.getInvitee()))
+			return null;
+
+		return getStatus();
+	}
+
+	/**
+	 * Sends the poll's current status to an invitee whose local copy of the
+	 * poll is out of date.
+	 * 
+	 * @param request
+	 *            the invitee's sync request.
+	 */
+	private void sync(PollSyncPayload request) {
+		String user = request.getInvitee();
+		if (!invitees.contains(user))
+			return;
+
+		PollStatusPayload status = getStatus();
+		if (status.getVersion() <= request.getVersion())
+			return; // the invitee is up-to-date
 
+		recordDelivery(user, send(user, Role.USER, status));
 	}
 
 	@Override
@@ -407,6 +1179,7 @@ public class Poll extends Peer {
 
 	@Override
 	public String toString() {
+		Map<TimeSlot, List<Response>> responses = getResponses();
 		Map.Entry<TimeSlot, List<Response>> topTimeSlot = getTopTimeSlot(responses);
 		String topSlot = topTimeSlot == null ? "none" : topTimeSlot.getKey()
 				.toTimeString();
@@ -0,0 +1,297 @@
+package doodle;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * An on-disk archive of the closed polls initiated by a user. Each archived
+ * poll is appended as [length][crc32][title][pending invitees][poll] where the
+ * poll is stored in the compact snapshot format. Only the archive's index (each
+ * poll's offset and pending invitees) is kept in memory; polls are read back
+ * individually when they are needed.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+public class PollArchive {
+
+	/** The archive file. */
+	private File file;
+
+	/** Reads and appends archive entries. */
+	private RandomAccessFile raf;
+
+	/** Indexes the offset of each archived poll's latest entry by title. */
+	private Map<String, Long> offsets;
+
+	/** The number of entries in the archive file. */
+	private int entries = 0;
+
+	/** The length of the archive file's valid entries. */
+	private long length = 0;
+
+	public PollArchive(String user) {
+		File dir = new File(Settings.DATA_PATH, user);
+		dir.mkdirs();
+
+		file = new File(dir, Settings.ARCHIVE_FILE);
+		offsets = new HashMap<String, Long>();
+	}
+
+	/**
+	 * Opens the archive, building its index. The archive file is rewritten if
+	 * it holds mostly superseded entries.
+	 * 
+	 * @return the pending invitees of each archived poll, keyed by title.
+	 * @throws IOException
+	 */
+	public synchronized Map<String, Set<String>> open() throws IOException {
+		Map<String, Set<String>> pending = index();
+
+		raf = new RandomAccessFile(file, "rw");
+		raf.setLength(length); // discard any torn tail
+
+		if (entries > Settings.ARCHIVE_COMPACTION_FACTOR * offsets.size())
+			compact();
+
+		return pending;
+	}
+
+	/**
+	 * Reads the titles of a user's archived polls, without opening the archive
+	 * (e.g., while the user is running).
+	 * 
+	 * @param user
+	 *            the user that initiated the polls.
+	 * @return the titles of the user's archived polls.
+	 * @throws IOException
+	 */
+	public static Set<String> readTitles(String user) throws IOException {
+		PollArchive archive = new PollArchive(user);
+		return archive.index().keySet();
+	}
+
+	/**
+	 * Scans the archive file, indexing the latest entry of each poll.
+	 * 
+	 * @return the pending invitees of each archived poll, keyed by title.
+	 * @throws IOException
+	 */
+	private Map<String, Set<String>> index() throws IOException {
+		Map<String, Set<String>> pending = new LinkedHashMap<String, Set<String>>();
+
+		long valid = 0;
+		if (file.exists()) {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(file)));
+			try {
+				while (true) {
+					int length = in.readInt();
+					long crc = in.readInt() & 0xffffffffL;
+					if (length <= 0 || length > file.length() - valid)
+						break; // corrupt length
+
+					byte[] body = new byte[length];
+					in.readFully(body);
+					if (checksum(body) != crc)
+						break; // torn entry
+
+					DataInputStream header = new DataInputStream(
+							new ByteArrayInputStream(body));
+					String title = header.readUTF();
+					Set<String> undelivered = new HashSet<String>();
+					for (int i = header.readInt(); i > 0; i--)
+						undelivered.add(header.readUTF());
+
+					offsets.put(title, valid);
+					pending.put(title, undelivered);
+
+					valid += 8 + length;
+					entries++;
+				}
+			} catch (EOFException e) {
+				// reached the end of the archive
+			} finally {
+				in.close();
+			}
+		}
+
+		length = valid;
+		return pending;
+	}
+
+	/**
+	 * Checks whether a poll is archived.
+	 * 
+	 * @param title
+	 *            the poll's title.
+	 * @return true if the poll is archived.
+	 */
+	public synchronized boolean contains(String title) {
+		return offsets.containsKey(title);
+	}
+
+	/**
+	 * Reads an archived poll.
+	 * 
+	 * @param title
+	 *            the poll's title.
+	 * @return the poll's state, or null if the poll is not archived.
+	 */
+	public synchronized PollRecord get(String title) {
+		Long offset = offsets.get(title);
+		if (offset == null || raf == null)
+			return null;
+
+		try {
+			return decode(read(offset));
+
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
+		return null;
+	}
+
+	/**
+	 * Archives a poll, superseding any earlier entry for the same poll.
+	 * 
+	 * @param poll
+	 *            the poll's state.
+	 */
+	public synchronized void put(PollRecord poll) {
+		if (raf == null)
+			return; // not opened (or closed)
+
+		try {
+			long offset = raf.length();
+			raf.seek(offset);
+			write(raf, encode(poll));
+			raf.getFD().sync();
+
+			offsets.put(poll.getTitle(), offset);
+			entries++;
+
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Closes the archive.
+	 */
+	public synchronized void close() {
+		if (raf == null)
+			return;
+
+		try {
+			raf.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		raf = null;
+	}
+
+	/**
+	 * Rewrites the archive with the latest entry of each poll.
+	 */
+	private void compact() throws IOException {
+		File temp = new File(file.getPath() + ".tmp");
+		FileOutputStream fos = new FileOutputStream(temp);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				fos));
+
+		Map<String, Long> compacted = new HashMap<String, Long>();
+		long offset = 0;
+		for (Map.Entry<String, Long> entry : offsets.entrySet()) {
+			byte[] body = read(entry.getValue());
+			write(out, body);
+
+			compacted.put(entry.getKey(), offset);
+			offset += 8 + body.length;
+		}
+		out.flush();
+		fos.getFD().sync();
+		out.close();
+
+		raf.close();
+		if (!temp.renameTo(file)) {
+			file.delete();
+			temp.renameTo(file);
+		}
+		raf = new RandomAccessFile(file, "rw");
+
+		offsets = compacted;
+		entries = compacted.size();
+	}
+
+	private byte[] read(long offset) throws IOException {
+		raf.seek(offset);
+		byte[] body = new byte[raf.readInt()];
+		raf.readInt(); // crc, verified when the archive was opened
+		raf.readFully(body);
+
+		return body;
+	}
+
+	private static void write(DataOutput out, byte[] body)
+			throws IOException {
+		out.writeInt(body.length);
+		out.writeInt((int) checksum(body));
+		out.write(body);
+	}
+
+	private static byte[] encode(PollRecord poll) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+
+		out.writeUTF(poll.getTitle());
+
+		Set<String> pending = poll.getPending() == null ? poll.getInvitees()
+				: poll.getPending();
+		out.writeInt(pending.size());
+		for (String invitee : pending)
+			out.writeUTF(invitee);
+
+		PollSnapshot.write(out, poll);
+
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	private static PollRecord decode(byte[] body) throws IOException {
+		DataInputStream header = new DataInputStream(new ByteArrayInputStream(
+				body));
+		header.readUTF(); // title
+		for (int i = header.readInt(); i > 0; i--)
+			header.readUTF(); // pending invitee
+
+		int position = body.length - header.available();
+		return PollSnapshot.read(ByteBuffer.wrap(body, position, body.length
+				- position));
+	}
+
+	private static long checksum(byte[] body) {
+		CRC32 crc = new CRC32();
+		crc.update(body, 0, body.length);
+		return crc.getValue();
+	}
+}
@@ -0,0 +1,33 @@
+package doodle;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Polls hosted by the same user may deliver several status updates to an
+ * invitee at once by attaching a PollBatch to a single message (e.g., to catch
+ * an invitee up on everything it missed while it was offline).
+ * 
+ * @author Jonas Michel
+ * 
+ */
+public class PollBatchPayload extends Payload {
+	private static final long serialVersionUID = 4106628826718932415L;
+
+	/** Holds the batched poll status updates. */
+	private List<PollStatusPayload> statuses;
+
+	public PollBatchPayload(List<PollStatusPayload> statuses) {
+		super();
+
+		this.statuses = new ArrayList<PollStatusPayload>(statuses);
+	}
+
+	public List<PollStatusPayload> getStatuses() {
+		return statuses;
+	}
+
+	public int size() {
+		return statuses.size();
+	}
+}
@@ -16,4 +16,68 @@ public interface PollDelegate {
 	 *            a string describing activity on the poll.
 	 */
 	public void pollActivity(String title, String activity);
+
+	/**
+	 * Called when an invitee responded to the poll.
+	 * 
+	 * @param title
+	 *            the poll's title.
+	 * @param responder
+	 *            the responder's user name.
+	 */
+	public void pollResponded(String title, String responder);
+
+	/**
+	 * Called when the poll's responses changed. The delegate may take over
+	 * updating the invitees (e.g., to batch the updates of several polls).
+	 * 
+	 * @param poll
+	 *            the poll.
+	 * @return true if the delegate updates the invitees, false if the poll
+	 *         should push its update itself.
+	 */
+	public boolean pollUpdated(Poll poll);
+
+	/**
+	 * Called when the poll is due to close automatically (its deadline passed
+	 * or its close condition was met). The delegate is expected to close the
+	 * poll.
+	 * 
+	 * @param title
+	 *            the poll's title.
+	 * @param timeSlot
+	 *            the final time slot chosen by the poll's closing policy.
+	 */
+	public void pollDue(String title, TimeSlot timeSlot);
+
+	/**
+	 * Called when the poll's non-responders are due a reminder of its
+	 * deadline.
+	 * 
+	 * @param poll
+	 *            the poll.
+	 */
+	public void pollReminderDue(Poll poll);
+
+	/**
+	 * Called when the poll was unable to deliver its current status to an
+	 * invitee (e.g., because the invitee is offline).
+	 * 
+	 * @param title
+	 *            the poll's title.
+	 * @param invitee
+	 *            the invitee with undelivered poll state.
+	 */
+	public void pollPending(String title, String invitee);
+
+	/**
+	 * Called when an invitee that previously had undelivered poll state has
+	 * been brought up-to-date.
+	 * 
+	 * @param title
+	 *            the poll's title.
+	 * @param invitee
+	 *            the invitee that is now up-to-date.
+	 */
+	public void pollDelivered(String title, String invitee);
 }
@@ -0,0 +1,26 @@
+package doodle;
+
+/**
+ * Invitees holding a summary status of a poll request the poll's responses by
+ * sending the poll a request containing a PollDetailsRequest payload. The poll
+ * replies with its full current status.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+public class PollDetailsRequestPayload extends Payload {
+	private static final long serialVersionUID = 2871609541326580817L;
+
+	/** The requesting invitee's user name. */
+	private String invitee;
+
+	public PollDetailsRequestPayload(String invitee) {
+		super();
+
+		this.invitee = invitee;
+	}
+
+	public String getInvitee() {
+		return invitee;
+	}
+}
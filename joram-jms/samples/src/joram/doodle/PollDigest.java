@@ -0,0 +1,141 @@
+package doodle;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import doodle.Peer.Role;
+
+/**
+ * Batches the response updates of the polls hosted by a user per invitee.
+ * Polls whose responses changed are marked for each of their invitees, and
+ * every digest interval each invitee is sent a single message with the current
+ * status of every poll marked for it. A poll receiving many responses within
+ * an interval is therefore only sent once, with its latest state.
+ * 
+ * Invitations and closings are not batched; polls push them immediately.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+public class PollDigest extends Thread {
+
+	/** The peer digests are sent through (the polls' host). */
+	private Peer host;
+
+	/** Guards the marked polls. */
+	private final Object lock = new Object();
+
+	/** Holds the polls with undigested updates by invitee name. */
+	private Map<String, Set<Poll>> marked = new HashMap<String, Set<Poll>>();
+
+	/** Whether the digest is still running. */
+	private volatile boolean running = true;
+
+	public PollDigest(String name, Peer host) {
+		super("PollDigest-" + name);
+		setDaemon(true);
+
+		this.host = host;
+	}
+
+	/**
+	 * Marks a poll's responses as changed for each of its invitees.
+	 * 
+	 * @param poll
+	 *            the poll.
+	 */
+	public void add(Poll poll) {
+		synchronized (lock) {
+			for (String invitee : poll.getInvitees()) {
+				Set<Poll> polls = marked.get(invitee);
+				if (polls == null) {
+					polls = new LinkedHashSet<Poll>();
+					marked.put(invitee, polls);
+				}
+
+				polls.add(poll);
+			}
+		}
+	}
+
+	/**
+	 * Sends each invitee a digest of the polls marked for it.
+	 */
+	public void flush() {
+		Map<String, Set<Poll>> digests;
+		synchronized (lock) {
+			if (marked.isEmpty())
+				return;
+
+			digests = marked;
+			marked = new HashMap<String, Set<Poll>>();
+		}
+
+		// each poll's status is taken once per flush
+		Map<Poll, PollStatusPayload> statuses = new HashMap<Poll, PollStatusPayload>();
+
+		for (Map.Entry<String, Set<Poll>> digest : digests.entrySet()) {
+			String invitee = digest.getKey();
+
+			List<Poll> polls = new ArrayList<Poll>();
+			List<PollStatusPayload> updates = new ArrayList<PollStatusPayload>();
+			for (Poll poll : digest.getValue()) {
+				if (poll.isClosed())
+					continue; // the closing was pushed in full
+
+				PollStatusPayload status = statuses.get(poll);
+				if (status == null) {
+					status = poll.getUpdate();
+					statuses.put(poll, status);
+				}
+
+				polls.add(poll);
+				updates.add(status);
+			}
+
+			if (polls.isEmpty())
+				continue;
+
+			boolean success = host.send(invitee, Role.USER,
+					new PollBatchPayload(updates));
+
+			// the polls index the invitee as pending if it was unreachable
+			for (Poll poll : polls)
+				poll.delivered(invitee, success);
+		}
+	}
+
+	/**
+	 * Sends the remaining digests and stops the digest.
+	 */
+	public void shutdown() {
+		running = false;
+		interrupt();
+
+		try {
+			join();
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+
+		flush();
+	}
+
+	@Override
+	public void run() {
+		while (running) {
+			try {
+				Thread.sleep(Settings.DIGEST_INTERVAL);
+			} catch (InterruptedException e) {
+				// shutting down
+			}
+
+			if (running)
+				flush();
+		}
+	}
+}
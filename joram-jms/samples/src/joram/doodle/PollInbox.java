@@ -0,0 +1,366 @@
+package doodle;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import doodle.Poll.PollKey;
+
+/**
+ * A user's persistent inbox of the polls it has been invited to. The inbox is
+ * an append-only key-value file keyed by poll and versioned by the poll's
+ * version: every change to the user's knowledge of a poll appends the poll's
+ * latest status, and the latest version of each poll wins when the inbox is
+ * loaded. This lets a restarted user show its invited polls immediately and
+ * only ask the polls for changes since the stored versions. Closed polls are
+ * only indexed when the inbox is loaded and are read back on demand.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+public class PollInbox {
+
+	/** The folders an invited poll may be filed in. */
+	public enum Folder {
+		OPEN, RESPONDED, CLOSED
+	};
+
+	/** The inbox file. */
+	private File file;
+
+	/** Reads and appends inbox entries. */
+	private RandomAccessFile raf;
+
+	/**
+	 * Indexes the offset of the latest entry of each closed poll. Closed polls
+	 * are final, so they are only read from the inbox when they are needed.
+	 */
+	private Map<PollKey, Long> closed;
+
+	/** The number of entries in the inbox file. */
+	private int entries = 0;
+
+	public PollInbox(String user) {
+		File dir = new File(Settings.DATA_PATH, user);
+		dir.mkdirs();
+
+		file = new File(dir, Settings.INBOX_FILE);
+		closed = new HashMap<PollKey, Long>();
+	}
+
+	/**
+	 * Loads the latest version of every open (or responded) poll in the inbox,
+	 * indexes the closed polls, and opens the inbox for appending. The inbox
+	 * file is rewritten if it holds mostly superseded entries.
+	 * 
+	 * @return the stored open and responded polls.
+	 * @throws IOException
+	 */
+	public synchronized Map<PollKey, Entry> load() throws IOException {
+		Map<PollKey, Entry> polls = new LinkedHashMap<PollKey, Entry>();
+		Map<PollKey, Long> versions = new HashMap<PollKey, Long>();
+
+		long valid = 0;
+		if (file.exists()) {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(file)));
+			try {
+				while (true) {
+					int length = in.readInt();
+					long crc = in.readInt() & 0xffffffffL;
+					if (length <= 0 || length > file.length() - valid)
+						break; // corrupt length
+
+					byte[] body = new byte[length];
+					in.readFully(body);
+					if (checksum(body) != crc)
+						break; // torn entry
+
+					// read the entry's header only
+					DataInputStream header = new DataInputStream(
+							new ByteArrayInputStream(body));
+					Folder folder = Folder.values()[header.readByte()];
+					PollKey key = new PollKey(header.readUTF(),
+							header.readUTF());
+					long version = header.readLong();
+
+					Long stored = versions.get(key);
+					if (stored == null || stored <= version) {
+						versions.put(key, version);
+						if (folder == Folder.CLOSED) {
+							polls.remove(key);
+							closed.put(key, valid);
+						} else {
+							polls.put(key, decode(body));
+							closed.remove(key);
+						}
+					}
+
+					valid += 8 + length;
+					entries++;
+				}
+			} catch (EOFException e) {
+				// reached the end of the inbox
+			} finally {
+				in.close();
+			}
+		}
+
+		raf = new RandomAccessFile(file, "rw");
+		raf.setLength(valid); // discard any torn tail
+
+		if (entries > Settings.INBOX_COMPACTION_FACTOR * versions.size())
+			compact(polls);
+
+		return polls;
+	}
+
+	/**
+	 * Returns the keys of the closed polls in the inbox.
+	 * 
+	 * @return the closed poll keys.
+	 */
+	public synchronized Set<PollKey> getClosedKeys() {
+		return new HashSet<PollKey>(closed.keySet());
+	}
+
+	/**
+	 * Reads a closed poll from the inbox.
+	 * 
+	 * @param key
+	 *            the poll's key.
+	 * @return the poll's latest status, or null if it is not a closed poll in
+	 *         the inbox.
+	 */
+	public synchronized PollStatusPayload getClosed(PollKey key) {
+		Long offset = closed.get(key);
+		if (offset == null || raf == null)
+			return null;
+
+		try {
+			return decode(read(offset)).getPoll();
+
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
+		return null;
+	}
+
+	/**
+	 * Stores the latest status of a poll.
+	 * 
+	 * @param folder
+	 *            the folder the poll is filed in.
+	 * @param poll
+	 *            the poll's latest status.
+	 */
+	public synchronized void put(Folder folder, PollStatusPayload poll) {
+		if (raf == null)
+			return; // not loaded (or closed)
+
+		try {
+			long offset = raf.length();
+			raf.seek(offset);
+			write(raf, encode(folder, poll));
+			entries++;
+
+			if (folder == Folder.CLOSED)
+				closed.put(poll.getKey(), offset);
+			else
+				closed.remove(poll.getKey());
+
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Closes the inbox.
+	 */
+	public synchronized void close() {
+		if (raf == null)
+			return;
+
+		try {
+			raf.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		raf = null;
+	}
+
+	/**
+	 * Rewrites the inbox with the latest entry of each poll.
+	 */
+	private void compact(Map<PollKey, Entry> polls) throws IOException {
+		File temp = new File(file.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(temp)));
+
+		Map<PollKey, Long> compacted = new HashMap<PollKey, Long>();
+		long offset = 0;
+		for (Entry entry : polls.values()) {
+			byte[] body = encode(entry.folder, entry.poll);
+			write(out, body);
+			offset += 8 + body.length;
+		}
+		for (Map.Entry<PollKey, Long> entry : closed.entrySet()) {
+			byte[] body = read(entry.getValue());
+			write(out, body);
+
+			compacted.put(entry.getKey(), offset);
+			offset += 8 + body.length;
+		}
+		out.close();
+
+		raf.close();
+		if (!temp.renameTo(file)) {
+			file.delete();
+			temp.renameTo(file);
+		}
+		raf = new RandomAccessFile(file, "rw");
+
+		closed = compacted;
+		entries = polls.size() + compacted.size();
+	}
+
+	private byte[] read(long offset) throws IOException {
+		raf.seek(offset);
+		byte[] body = new byte[raf.readInt()];
+		raf.readInt(); // crc, verified when the inbox was loaded
+		raf.readFully(body);
+
+		return body;
+	}
+
+	private static void write(DataOutput out, byte[] body) throws IOException {
+		out.writeInt(body.length);
+		out.writeInt((int) checksum(body));
+		out.write(body);
+	}
+
+	private static byte[] encode(Folder folder, PollStatusPayload poll)
+			throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+
+		out.writeByte(folder.ordinal());
+		out.writeUTF(poll.getTitle());
+		out.writeUTF(poll.getInitiator());
+		out.writeLong(poll.getVersion());
+
+		out.writeBoolean(poll.isSummary());
+		if (poll.isSummary()) {
+			out.writeInt(poll.getNumResponses());
+			out.writeBoolean(poll.getTopSlot() != null);
+			if (poll.getTopSlot() != null)
+				poll.getTopSlot().write(out);
+			out.writeFloat(poll.getTopScore());
+		}
+
+		out.writeBoolean(poll.isClosed());
+		if (poll.isClosed())
+			poll.getTimeSlot().write(out);
+
+		out.writeInt(poll.getResponses().size());
+		for (Map.Entry<TimeSlot, List<Response>> entry : poll.getResponses()
+				.entrySet()) {
+			entry.getKey().write(out);
+			out.writeInt(entry.getValue().size());
+			for (Response response : entry.getValue()) {
+				out.writeUTF(response.getResponder());
+				out.writeByte(response.getChoice().ordinal());
+			}
+		}
+
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	private static Entry decode(byte[] body) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+				body));
+
+		Folder folder = Folder.values()[in.readByte()];
+		String title = in.readUTF();
+		String initiator = in.readUTF();
+		long version = in.readLong();
+
+		boolean summary = in.readBoolean();
+		int numResponses = 0;
+		TimeSlot topSlot = null;
+		float topScore = 0;
+		if (summary) {
+			numResponses = in.readInt();
+			topSlot = in.readBoolean() ? TimeSlot.read(in) : null;
+			topScore = in.readFloat();
+		}
+
+		TimeSlot timeSlot = in.readBoolean() ? TimeSlot.read(in) : null;
+
+		Map<TimeSlot, List<Response>> responses = new HashMap<TimeSlot, List<Response>>();
+		for (int i = in.readInt(); i > 0; i--) {
+			TimeSlot slot = TimeSlot.read(in);
+			List<Response> slotResponses = new ArrayList<Response>();
+			for (int j = in.readInt(); j > 0; j--) {
+				String responder = in.readUTF();
+				slotResponses.add(new Response(responder, Response.Choice
+						.values()[in.readByte()]));
+			}
+			responses.put(slot, slotResponses);
+		}
+
+		PollStatusPayload poll = new PollStatusPayload(title, initiator,
+				responses, timeSlot, version);
+		if (summary)
+			poll.setSummary(numResponses, topSlot, topScore);
+
+		return new Entry(folder, poll);
+	}
+
+	private static long checksum(byte[] body) {
+		CRC32 crc = new CRC32();
+		crc.update(body, 0, body.length);
+		return crc.getValue();
+	}
+
+	/**
+	 * A stored poll and the folder it is filed in.
+	 */
+	public static class Entry {
+		private final Folder folder;
+		private final PollStatusPayload poll;
+
+		public Entry(Folder folder, PollStatusPayload poll) {
+			this.folder = folder;
+			this.poll = poll;
+		}
+
+		public Folder getFolder() {
+			return folder;
+		}
+
+		public PollStatusPayload getPoll() {
+			return poll;
+		}
+	}
+}
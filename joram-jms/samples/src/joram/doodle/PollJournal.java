@@ -0,0 +1,624 @@
+package doodle;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only journal of the events (open, deadline, close condition,
+ * response, close) of all polls initiated by a user. The journal is replayed when the user
+ * restarts so that no poll state is lost if the initiator's process crashes.
+ * 
+ * Appends are written by a dedicated writer thread which commits every batch
+ * of queued events with a single fsync (group commit). The durability level
+ * determines whether appending threads wait for their event to be committed.
+ * 
+ * Each journal entry is framed as [length][crc32][type][body]; a torn or
+ * corrupt entry at the end of the journal (e.g., from a crash mid-write) is
+ * discarded during recovery.
+ * 
+ * Once enough entries have been written, the writer thread compacts the
+ * journal: it asks its delegate for the current state of every poll, writes it
+ * to a snapshot, and truncates the journal. Replaying entries over a snapshot
+ * is idempotent, so entries racing with a compaction are harmless.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+public class PollJournal extends Thread {
+
+	/** Journal entry types. */
+	private static final byte OPEN = 1;
+	private static final byte RESPONSE = 2;
+	private static final byte CLOSE = 3;
+	private static final byte DEADLINE = 4;
+	private static final byte CONDITION = 5;
+
+	/** We make callbacks on the delegate. */
+	private PollJournalDelegate delegate;
+
+	/** The journal file. */
+	private File file;
+
+	/** The snapshot file the journal is compacted into. */
+	private File snapshotFile;
+
+	/** The file holding the journal's restart epoch. */
+	private File epochFile;
+
+	/** The journal's restart epoch, advanced by every recovery. */
+	private long epoch = 0;
+
+	/** The number of entries written since the last compaction. */
+	private int uncompacted = 0;
+
+	/** The journal file's channel, positioned at the end of the journal. */
+	private FileChannel channel;
+
+	/** Holds encoded entries waiting to be written by the writer thread. */
+	private BlockingQueue<Entry> queue;
+
+	/** The sequence number of the last appended entry. */
+	private long appended = 0;
+
+	/** The sequence number of the last committed entry. */
+	private long committed = 0;
+
+	/** Guards the append sequence number and the closed flag. */
+	private Object appendLock = new Object();
+
+	/** Guards the commit sequence number. */
+	private Object commitLock = new Object();
+
+	/** Set when the journal has been closed. */
+	private volatile boolean closed = false;
+
+	/** Queued by shutdown() to stop the writer thread. */
+	private static final Entry SHUTDOWN = new Entry(-1, new byte[0]);
+
+	public PollJournal(String user, PollJournalDelegate delegate)
+			throws IOException {
+		super("PollJournal-" + user);
+		setDaemon(true);
+
+		this.delegate = delegate;
+
+		File dir = new File(Settings.DATA_PATH, user);
+		dir.mkdirs();
+
+		snapshotFile = new File(dir, Settings.SNAPSHOT_FILE);
+		epochFile = new File(dir, Settings.EPOCH_FILE);
+		file = new File(dir, Settings.JOURNAL_FILE);
+		channel = new RandomAccessFile(file, "rw").getChannel();
+		channel.position(channel.size());
+
+		queue = new LinkedBlockingQueue<Entry>();
+	}
+
+	/**
+	 * Loads the latest snapshot and replays the journal over it, rebuilding
+	 * the state of every journaled poll. Any torn or corrupt entries at the
+	 * end of the journal are truncated, and the restart epoch is advanced.
+	 * This must be called before any events are appended.
+	 * 
+	 * @return the journaled polls keyed by title, in the order they were
+	 *         opened.
+	 * @throws IOException
+	 */
+	public Map<String, PollRecord> recover() throws IOException {
+		advanceEpoch();
+
+		Map<String, PollRecord> polls = PollSnapshot.read(snapshotFile);
+
+		List<byte[]> entries = new ArrayList<byte[]>();
+		long valid = scan(entries);
+		for (byte[] body : entries)
+			replay(polls, body);
+		uncompacted = entries.size();
+
+		if (valid < channel.size()) {
+			// discard the torn tail
+			channel.truncate(valid);
+			channel.force(true);
+		}
+		channel.position(valid);
+
+		return polls;
+	}
+
+	/**
+	 * Returns the journal's restart epoch. Every recovery durably advances the
+	 * epoch, so it is higher than in any earlier session, even one whose last
+	 * events were never committed.
+	 * 
+	 * @return the restart epoch.
+	 */
+	public long getEpoch() {
+		return epoch;
+	}
+
+	/**
+	 * Advances the restart epoch and commits it.
+	 * 
+	 * @throws IOException
+	 */
+	private void advanceEpoch() throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(epochFile, "rw");
+		try {
+			epoch = (raf.length() >= 8 ? raf.readLong() : 0) + 1;
+
+			raf.seek(0);
+			raf.writeLong(epoch);
+			raf.getFD().sync();
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Reads the valid entries of the journal file.
+	 * 
+	 * @param entries
+	 *            filled with the bodies of the valid entries.
+	 * @return the length of the valid prefix of the journal.
+	 */
+	private long scan(List<byte[]> entries) throws IOException {
+		long valid = 0;
+		long size = channel.size();
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(file)));
+		try {
+			while (true) {
+				int length = in.readInt();
+				long crc = in.readInt() & 0xffffffffL;
+				if (length <= 0 || length > size - valid)
+					break; // corrupt length
+
+				byte[] body = new byte[length];
+				in.readFully(body);
+				if (checksum(body) != crc)
+					break; // torn entry
+
+				entries.add(body);
+				valid += 8 + length;
+			}
+		} catch (EOFException e) {
+			// reached the end of the journal
+		} finally {
+			in.close();
+		}
+
+		return valid;
+	}
+
+	/**
+	 * Returns the title of the poll a journal entry belongs to.
+	 */
+	private static String getTitle(byte[] body) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+				body));
+		in.readByte(); // type
+		return in.readUTF();
+	}
+
+	/**
+	 * Applies a single journal entry to the set of rebuilt polls.
+	 */
+	private void replay(Map<String, PollRecord> polls, byte[] body)
+			throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+				body));
+
+		byte type = in.readByte();
+		String title = in.readUTF();
+
+		if (type == OPEN) {
+			String initiator = in.readUTF();
+			Set<String> invitees = new HashSet<String>();
+			for (int i = in.readInt(); i > 0; i--)
+				invitees.add(in.readUTF());
+			List<TimeSlot> timeSlots = new ArrayList<TimeSlot>();
+			for (int i = in.readInt(); i > 0; i--)
+				timeSlots.add(TimeSlot.read(in));
+
+			if (!polls.containsKey(title))
+				polls.put(title, new PollRecord(title, initiator, invitees,
+						timeSlots));
+
+		} else if (type == RESPONSE) {
+			String responder = in.readUTF();
+			Map<TimeSlot, Response> choices = new LinkedHashMap<TimeSlot, Response>();
+			for (int i = in.readInt(); i > 0; i--) {
+				TimeSlot timeSlot = TimeSlot.read(in);
+				choices.put(timeSlot, new Response(responder,
+						Response.Choice.values()[in.readByte()]));
+			}
+
+			PollRecord poll = polls.get(title);
+			if (poll != null && !poll.isClosed())
+				poll.respond(responder, choices);
+
+		} else if (type == CLOSE) {
+			TimeSlot timeSlot = TimeSlot.read(in);
+
+			PollRecord poll = polls.get(title);
+			if (poll != null)
+				poll.close(timeSlot);
+
+		} else if (type == DEADLINE) {
+			long deadline = in.readLong();
+			ClosingPolicy policy = ClosingPolicy.decode(in.readUTF());
+
+			PollRecord poll = polls.get(title);
+			if (poll != null)
+				poll.setDeadline(deadline, policy);
+
+		} else if (type == CONDITION) {
+			CloseCondition condition = CloseCondition.decode(in.readUTF());
+
+			PollRecord poll = polls.get(title);
+			if (poll != null)
+				poll.setCloseCondition(condition);
+		}
+	}
+
+	/**
+	 * Journals the opening of a poll.
+	 * 
+	 * @param title
+	 *            the poll's title.
+	 * @param initiator
+	 *            the poll's initiator.
+	 * @param invitees
+	 *            the poll's invitees.
+	 * @param timeSlots
+	 *            the poll's proposed time slots.
+	 */
+	public void open(String title, String initiator, Set<String> invitees,
+			List<TimeSlot> timeSlots) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeByte(OPEN);
+			out.writeUTF(title);
+			out.writeUTF(initiator);
+			out.writeInt(invitees.size());
+			for (String invitee : invitees)
+				out.writeUTF(invitee);
+			out.writeInt(timeSlots.size());
+			for (TimeSlot timeSlot : timeSlots)
+				timeSlot.write(out);
+			out.close();
+
+			append(bytes.toByteArray());
+
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Journals the deadline of a poll.
+	 * 
+	 * @param title
+	 *            the poll's title.
+	 * @param deadline
+	 *            the time the poll closes automatically.
+	 * @param policy
+	 *            chooses the final time slot when the deadline passes.
+	 */
+	public void deadline(String title, long deadline, ClosingPolicy policy) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeByte(DEADLINE);
+			out.writeUTF(title);
+			out.writeLong(deadline);
+			out.writeUTF(policy.encode());
+			out.close();
+
+			append(bytes.toByteArray());
+
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Journals the close condition of a poll.
+	 * 
+	 * @param title
+	 *            the poll's title.
+	 * @param condition
+	 *            closes the poll early once met.
+	 */
+	public void condition(String title, CloseCondition condition) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeByte(CONDITION);
+			out.writeUTF(title);
+			out.writeUTF(condition.encode());
+			out.close();
+
+			append(bytes.toByteArray());
+
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Journals an invitee's response to a poll.
+	 * 
+	 * @param title
+	 *            the poll's title.
+	 * @param responder
+	 *            the responder's user name.
+	 * @param choices
+	 *            the responder's choice for each time slot.
+	 */
+	public void respond(String title, String responder,
+			Map<TimeSlot, Response> choices) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeByte(RESPONSE);
+			out.writeUTF(title);
+			out.writeUTF(responder);
+			out.writeInt(choices.size());
+			for (Map.Entry<TimeSlot, Response> entry : choices.entrySet()) {
+				entry.getKey().write(out);
+				out.writeByte(entry.getValue().getChoice().ordinal());
+			}
+			out.close();
+
+			append(bytes.toByteArray());
+
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Journals the closing of a poll.
+	 * 
+	 * @param title
+	 *            the poll's title.
+	 * @param timeSlot
+	 *            the final time slot chosen by the poll initiator.
+	 */
+	public void close(String title, TimeSlot timeSlot) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeByte(CLOSE);
+			out.writeUTF(title);
+			timeSlot.write(out);
+			out.close();
+
+			append(bytes.toByteArray());
+
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Queues an encoded entry for the writer thread. In synchronous mode this
+	 * blocks until the group commit containing the entry has been fsync'ed.
+	 */
+	private void append(byte[] body) {
+		long sequence;
+		synchronized (appendLock) {
+			if (closed)
+				return;
+
+			sequence = ++appended;
+			queue.add(new Entry(sequence, body));
+		}
+
+		if (!Settings.JOURNAL_DURABILITY.equals(Settings.JOURNAL_SYNC))
+			return;
+
+		synchronized (commitLock) {
+			while (committed < sequence && !closed) {
+				try {
+					commitLock.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Flushes all queued entries and closes the journal.
+	 */
+	public void shutdown() {
+		synchronized (appendLock) {
+			if (closed)
+				return;
+
+			closed = true;
+			queue.add(SHUTDOWN);
+		}
+
+		try {
+			join();
+			channel.close();
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	@Override
+	public void run() {
+		List<Entry> batch = new ArrayList<Entry>();
+		boolean running = true;
+
+		while (running) {
+			try {
+				batch.add(queue.take());
+
+				// give concurrent appenders a chance to join the group commit
+				if (Settings.JOURNAL_DURABILITY.equals(Settings.JOURNAL_BATCH))
+					Thread.sleep(Settings.JOURNAL_COMMIT_INTERVAL);
+
+			} catch (InterruptedException e) {
+				// commit whatever has been queued so far
+			}
+
+			queue.drainTo(batch);
+			if (batch.remove(SHUTDOWN))
+				running = false; // entries are never queued after shutdown
+			if (batch.isEmpty())
+				continue;
+
+			try {
+				commit(batch);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+
+			synchronized (commitLock) {
+				committed = batch.get(batch.size() - 1).sequence;
+				commitLock.notifyAll();
+			}
+
+			uncompacted += batch.size();
+			batch.clear();
+
+			if (uncompacted >= Settings.SNAPSHOT_THRESHOLD)
+				compact();
+		}
+
+		synchronized (commitLock) {
+			commitLock.notifyAll();
+		}
+	}
+
+	/**
+	 * Snapshots the state of every poll and truncates the journal. Entries
+	 * committed so far describe changes the polls had already applied, so
+	 * they are all captured by the snapshot. The entries of polls the delegate
+	 * does not know about yet (e.g., a poll that is still being opened) are
+	 * carried over into the truncated journal, unless the poll was closed and
+	 * archived by the delegate.
+	 */
+	private void compact() {
+		try {
+			Collection<PollRecord> polls = delegate.snapshotPolls();
+			Set<String> titles = new HashSet<String>();
+			for (PollRecord poll : polls)
+				titles.add(poll.getTitle());
+
+			PollSnapshot.write(snapshotFile, polls);
+
+			List<byte[]> entries = new ArrayList<byte[]>();
+			scan(entries);
+
+			List<Entry> kept = new ArrayList<Entry>();
+			for (byte[] body : entries) {
+				String title = getTitle(body);
+				if (!titles.contains(title) && !delegate.isArchived(title))
+					kept.add(new Entry(0, body));
+			}
+
+			// atomically replace the journal with the carried over entries
+			File temp = new File(file.getPath() + ".tmp");
+			FileChannel compacted = new RandomAccessFile(temp, "rw")
+					.getChannel();
+			compacted.truncate(0);
+			write(compacted, kept);
+			compacted.force(true);
+			compacted.close();
+
+			channel.close();
+			if (!temp.renameTo(file)) {
+				file.delete();
+				temp.renameTo(file);
+			}
+			channel = new RandomAccessFile(file, "rw").getChannel();
+			channel.position(channel.size());
+
+			uncompacted = kept.size();
+
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Writes a batch of entries to the journal file with a single fsync.
+	 */
+	private void commit(List<Entry> batch) throws IOException {
+		write(channel, batch);
+
+		if (!Settings.JOURNAL_DURABILITY.equals(Settings.JOURNAL_NONE))
+			channel.force(false);
+	}
+
+	/**
+	 * Writes framed entries to a journal channel.
+	 */
+	private static void write(FileChannel channel, List<Entry> batch)
+			throws IOException {
+		int size = 0;
+		for (Entry entry : batch)
+			size += 8 + entry.body.length;
+
+		ByteBuffer buffer = ByteBuffer.allocate(size);
+		for (Entry entry : batch) {
+			buffer.putInt(entry.body.length);
+			buffer.putInt((int) checksum(entry.body));
+			buffer.put(entry.body);
+		}
+		buffer.flip();
+
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+	}
+
+	private static long checksum(byte[] body) {
+		CRC32 crc = new CRC32();
+		crc.update(body, 0, body.length);
+		return crc.getValue();
+	}
+
+	/**
+	 * An encoded journal entry waiting to be written.
+	 */
+	private static class Entry {
+		private final long sequence;
+		private final byte[] body;
+
+		public Entry(long sequence, byte[] body) {
+			this.sequence = sequence;
+			this.body = body;
+		}
+	}
+}
@@ -0,0 +1,29 @@
+package doodle;
+
+import java.util.Collection;
+
+/**
+ * Defines the callbacks used by a PollJournal.
+ * 
+ * @author Jonas Michel
+ */
+public interface PollJournalDelegate {
+
+	/**
+	 * Called by the journal when it compacts itself, to capture the current
+	 * state of every open journaled poll.
+	 * 
+	 * @return the current state of the journaled polls.
+	 */
+	public Collection<PollRecord> snapshotPolls();
+
+	/**
+	 * Called by the journal when it compacts itself, to drop the entries of
+	 * polls that have been closed and moved out of the journal.
+	 * 
+	 * @param title
+	 *            the poll's title.
+	 * @return true if the poll has been archived.
+	 */
+	public boolean isArchived(String title);
+}
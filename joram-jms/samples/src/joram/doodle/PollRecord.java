@@ -0,0 +1,163 @@
+package doodle;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A PollRecord holds the durable state of a poll (without any of the poll's
+ * messaging constructs). Records are rebuilt from the poll journal when a user
+ * restarts and are used to restore the user's initiated polls.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+public class PollRecord {
+	/** The poll's title. */
+	private String title;
+
+	/** The name of the user that initiated the poll. */
+	private String initiator;
+
+	/** Holds the user names of the poll invitees. */
+	private Set<String> invitees;
+
+	/** Holds the proposed time slots and invitees' responses. */
+	private Map<TimeSlot, List<Response>> responses;
+
+	/** The poll's final time slot, null until chosen by the initiator. */
+	private TimeSlot timeSlot = null;
+
+	/**
+	 * Holds the user names of poll invitees with pending (undelivered) poll
+	 * messages, null if unknown.
+	 */
+	private Set<String> pending = null;
+
+	/** The poll's version, incremented on every change. */
+	private long version = 1;
+
+	/** The time the poll closes automatically (0 if it has no deadline). */
+	private long deadline = 0;
+
+	/** Chooses the final time slot when the deadline passes. */
+	private ClosingPolicy policy = null;
+
+	/** Closes the poll early once met (null if none). */
+	private CloseCondition condition = null;
+
+	public PollRecord(String title, String initiator, Set<String> invitees,
+			List<TimeSlot> timeSlots) {
+		this.title = title;
+		this.initiator = initiator;
+		this.invitees = new HashSet<String>(invitees);
+
+		responses = new ConcurrentHashMap<TimeSlot, List<Response>>();
+		for (TimeSlot timeSlot : timeSlots)
+			responses.put(timeSlot, new ArrayList<Response>());
+	}
+
+	public PollRecord(String title, String initiator, Set<String> invitees,
+			Map<TimeSlot, List<Response>> responses, TimeSlot timeSlot,
+			Set<String> pending, long version) {
+		this.title = title;
+		this.version = version;
+		this.initiator = initiator;
+		this.invitees = new HashSet<String>(invitees);
+		this.timeSlot = timeSlot;
+		this.pending = pending == null ? null : new HashSet<String>(pending);
+
+		this.responses = new ConcurrentHashMap<TimeSlot, List<Response>>();
+		for (Map.Entry<TimeSlot, List<Response>> entry : responses.entrySet())
+			this.responses.put(entry.getKey(),
+					new ArrayList<Response>(entry.getValue()));
+	}
+
+	public String getTitle() {
+		return title;
+	}
+
+	public String getInitiator() {
+		return initiator;
+	}
+
+	public Set<String> getInvitees() {
+		return invitees;
+	}
+
+	public Map<TimeSlot, List<Response>> getResponses() {
+		return responses;
+	}
+
+	public TimeSlot getTimeSlot() {
+		return timeSlot;
+	}
+
+	public Set<String> getPending() {
+		return pending;
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	public boolean isClosed() {
+		return timeSlot != null;
+	}
+
+	public long getDeadline() {
+		return deadline;
+	}
+
+	public ClosingPolicy getPolicy() {
+		return policy;
+	}
+
+	public CloseCondition getCloseCondition() {
+		return condition;
+	}
+
+	public void setCloseCondition(CloseCondition condition) {
+		this.condition = condition;
+	}
+
+	/**
+	 * Records the poll's deadline.
+	 * 
+	 * @param deadline
+	 *            the time the poll closes automatically (0 for none).
+	 * @param policy
+	 *            chooses the final time slot when the deadline passes.
+	 */
+	public void setDeadline(long deadline, ClosingPolicy policy) {
+		this.deadline = deadline;
+		this.policy = policy;
+	}
+
+	/**
+	 * Records an invitee's response to the poll.
+	 * 
+	 * @param responder
+	 *            the responder's user name.
+	 * @param choices
+	 *            the responder's choice for each time slot.
+	 */
+	public void respond(String responder, Map<TimeSlot, Response> choices) {
+		Poll.applyResponses(responses, responder, choices);
+		version++;
+	}
+
+	/**
+	 * Records the poll's final time slot.
+	 * 
+	 * @param timeSlot
+	 *            the final time slot chosen by the poll initiator.
+	 */
+	public void close(TimeSlot timeSlot) {
+		this.timeSlot = timeSlot;
+		version++;
+	}
+}
@@ -0,0 +1,37 @@
+package doodle;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Users remind the invitees that have not responded to their polls of the
+ * polls' deadlines by sending them a message containing a PollReminder
+ * payload. A single reminder may cover several polls of the same initiator.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+public class PollReminderPayload extends Payload {
+	private static final long serialVersionUID = -1708841402733546951L;
+
+	/** The name of the user that initiated the polls. */
+	private String initiator;
+
+	/** Holds the deadline of each poll by title. */
+	private Map<String, Long> deadlines;
+
+	public PollReminderPayload(String initiator, Map<String, Long> deadlines) {
+		super();
+
+		this.initiator = initiator;
+		this.deadlines = new LinkedHashMap<String, Long>(deadlines);
+	}
+
+	public String getInitiator() {
+		return initiator;
+	}
+
+	public Map<String, Long> getDeadlines() {
+		return deadlines;
+	}
+}
@@ -0,0 +1,95 @@
+package doodle;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import doodle.Peer.Role;
+
+/**
+ * Sends the reminders of the polls hosted by a user. Polls schedule their
+ * reminders on the shared timer wheel; when one is due the poll is queued
+ * here, and on the next tick every queued poll's non-responders are reminded
+ * together, with a single message per invitee.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+public class PollReminders {
+
+	/** The peer reminders are sent through (the polls' host). */
+	private Peer host;
+
+	/** The name of the user hosting the polls. */
+	private String initiator;
+
+	/** Guards the queued polls. */
+	private final Object lock = new Object();
+
+	/** Holds the polls with due reminders. */
+	private Set<Poll> due = new LinkedHashSet<Poll>();
+
+	/** Sends the queued reminders. */
+	private final Runnable flush = new Runnable() {
+		@Override
+		public void run() {
+			flush();
+		}
+	};
+
+	public PollReminders(String initiator, Peer host) {
+		this.initiator = initiator;
+		this.host = host;
+	}
+
+	/**
+	 * Queues the reminder of a poll, to be sent on the next tick.
+	 * 
+	 * @param poll
+	 *            the poll.
+	 */
+	public void add(Poll poll) {
+		synchronized (lock) {
+			if (due.isEmpty())
+				TimerWheel.getDefault().schedule(flush,
+						System.currentTimeMillis());
+
+			due.add(poll);
+		}
+	}
+
+	/**
+	 * Reminds the non-responders of every queued poll.
+	 */
+	private void flush() {
+		Set<Poll> polls;
+		synchronized (lock) {
+			polls = due;
+			due = new LinkedHashSet<Poll>();
+		}
+
+		Map<String, Map<String, Long>> reminders = new HashMap<String, Map<String, Long>>();
+		for (Poll poll : polls) {
+			if (poll.isClosed())
+				continue;
+
+			for (String invitee : poll.getNonResponders()) {
+				Map<String, Long> deadlines = reminders.get(invitee);
+				if (deadlines == null) {
+					deadlines = new LinkedHashMap<String, Long>();
+					reminders.put(invitee, deadlines);
+				}
+
+				deadlines.put(poll.getTitle(), poll.getDeadline());
+			}
+		}
+
+		// offline invitees are not reminded
+		for (Map.Entry<String, Map<String, Long>> reminder : reminders
+				.entrySet())
+			host.send(reminder.getKey(), Role.USER, new PollReminderPayload(
+					initiator, reminder.getValue()));
+	}
+}
@@ -1,5 +1,6 @@
 package doodle;
 
+import java.util.HashMap;
 import java.util.Map;
 
 /**
@@ -23,7 +24,7 @@ public class PollResponsePayload extends Payload {
 		super();
 
 		this.responder = responder;
-		this.responses = responses;
+		this.responses = new HashMap<TimeSlot, Response>(responses);
 	}
 
 	public String getResponder() {
@@ -34,4 +35,8 @@ public class PollResponsePayload extends Payload {
 		return responses;
 	}
 
+	@Override
+	public String getOrderingKey() {
+		return responder;
+	}
 }
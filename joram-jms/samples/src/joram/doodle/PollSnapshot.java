@@ -0,0 +1,295 @@
+package doodle;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reads and writes compact binary snapshots of poll state. A snapshot holds,
+ * for each poll, its version, its time slots, a dictionary of the user names involved in
+ * the poll, the responders' choices packed two bits per time slot, the pending
+ * invitees and the final time slot. Snapshots let the poll journal be
+ * truncated, so restarting never replays more than the events journaled since
+ * the last snapshot.
+ * 
+ * The deadlines and close conditions of the polls that have one follow the
+ * polls, so the per-poll format (shared with the poll archive) is unchanged.
+ * 
+ * Snapshots are read through a memory mapping of the snapshot file.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+public class PollSnapshot {
+
+	/** Identifies a snapshot file and its format version. */
+	private static final int MAGIC = 0xD00D1E04;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Atomically replaces a snapshot file with a snapshot of the given polls.
+	 * 
+	 * @param file
+	 *            the snapshot file.
+	 * @param polls
+	 *            the polls' current state.
+	 * @throws IOException
+	 */
+	public static void write(File file, Collection<PollRecord> polls)
+			throws IOException {
+		File temp = new File(file.getPath() + ".tmp");
+
+		FileOutputStream fos = new FileOutputStream(temp);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				fos));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(polls.size());
+			List<PollRecord> scheduled = new ArrayList<PollRecord>();
+			for (PollRecord poll : polls) {
+				write(out, poll);
+				if (poll.getDeadline() > 0 || poll.getCloseCondition() != null)
+					scheduled.add(poll);
+			}
+
+			// deadlines and close conditions ("" if none)
+			out.writeInt(scheduled.size());
+			for (PollRecord poll : scheduled) {
+				writeString(out, poll.getTitle());
+				out.writeLong(poll.getDeadline());
+				writeString(out, poll.getDeadline() > 0 ? poll.getPolicy()
+						.encode() : "");
+				writeString(out, poll.getCloseCondition() != null ? poll
+						.getCloseCondition().encode() : "");
+			}
+
+			out.flush();
+			fos.getFD().sync();
+		} finally {
+			out.close();
+		}
+
+		if (!temp.renameTo(file)) {
+			// some platforms will not rename over an existing file
+			file.delete();
+			if (!temp.renameTo(file))
+				throw new IOException("Unable to replace snapshot " + file);
+		}
+	}
+
+	/**
+	 * Writes a single poll in the snapshot format.
+	 * 
+	 * @param out
+	 *            the output to write to.
+	 * @param poll
+	 *            the poll's state.
+	 * @throws IOException
+	 */
+	static void write(DataOutputStream out, PollRecord poll)
+			throws IOException {
+		writeString(out, poll.getTitle());
+		writeString(out, poll.getInitiator());
+		out.writeLong(poll.getVersion());
+
+		// time slots, in order
+		List<TimeSlot> timeSlots = Poll.getSortedTimeSlots(poll.getResponses());
+		out.writeInt(timeSlots.size());
+		for (TimeSlot timeSlot : timeSlots)
+			timeSlot.write(out);
+
+		// collect each responder's choices
+		Map<String, Response.Choice[]> choices = new LinkedHashMap<String, Response.Choice[]>();
+		for (int i = 0; i < timeSlots.size(); i++) {
+			for (Response response : poll.getResponses().get(timeSlots.get(i))) {
+				Response.Choice[] responderChoices = choices.get(response
+						.getResponder());
+				if (responderChoices == null) {
+					responderChoices = new Response.Choice[timeSlots.size()];
+					choices.put(response.getResponder(), responderChoices);
+				}
+				responderChoices[i] = response.getChoice();
+			}
+		}
+
+		// the user name dictionary
+		Map<String, Integer> ids = new HashMap<String, Integer>();
+		List<String> names = new ArrayList<String>(poll.getInvitees());
+		for (String responder : choices.keySet()) {
+			if (!poll.getInvitees().contains(responder))
+				names.add(responder);
+		}
+		out.writeInt(names.size());
+		for (String name : names) {
+			ids.put(name, ids.size());
+			writeString(out, name);
+		}
+		out.writeInt(poll.getInvitees().size()); // invitees come first
+
+		// packed choices (a missing choice is stored as n/a)
+		out.writeInt(choices.size());
+		for (Map.Entry<String, Response.Choice[]> entry : choices.entrySet()) {
+			out.writeInt(ids.get(entry.getKey()));
+
+			byte[] packed = new byte[(timeSlots.size() * 2 + 7) / 8];
+			for (int i = 0; i < timeSlots.size(); i++) {
+				Response.Choice choice = entry.getValue()[i] == null ? Response.Choice.NA
+						: entry.getValue()[i];
+				packed[i / 4] |= choice.ordinal() << ((i % 4) * 2);
+			}
+			out.write(packed);
+		}
+
+		// pending invitees (-1 if unknown)
+		Set<String> pending = poll.getPending();
+		out.writeInt(pending == null ? -1 : pending.size());
+		if (pending != null) {
+			for (String name : pending)
+				out.writeInt(ids.containsKey(name) ? ids.get(name) : -1);
+		}
+
+		// final time slot (-1 if open)
+		out.writeInt(poll.getTimeSlot() == null ? -1 : timeSlots.indexOf(poll
+				.getTimeSlot()));
+	}
+
+	/**
+	 * Reads a snapshot file through a read-only memory mapping.
+	 * 
+	 * @param file
+	 *            the snapshot file.
+	 * @return the snapshot's polls keyed by title (empty if there is no
+	 *         snapshot).
+	 * @throws IOException
+	 */
+	public static Map<String, PollRecord> read(File file) throws IOException {
+		Map<String, PollRecord> polls = new LinkedHashMap<String, PollRecord>();
+		if (!file.exists())
+			return polls;
+
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY,
+					0, channel.size());
+
+			if (in.getInt() != MAGIC)
+				throw new IOException("Unrecognized snapshot " + file);
+
+			for (int n = in.getInt(); n > 0; n--) {
+				PollRecord poll = read(in);
+				polls.put(poll.getTitle(), poll);
+			}
+
+			for (int n = in.getInt(); n > 0; n--) {
+				PollRecord poll = polls.get(readString(in));
+				long deadline = in.getLong();
+				String policy = readString(in);
+				String condition = readString(in);
+				if (poll == null)
+					continue;
+
+				if (deadline > 0)
+					poll.setDeadline(deadline, ClosingPolicy.decode(policy));
+				if (!condition.isEmpty())
+					poll.setCloseCondition(CloseCondition.decode(condition));
+			}
+		} finally {
+			raf.close();
+		}
+
+		return polls;
+	}
+
+	/**
+	 * Reads a single poll written by
+	 * {@link #write(DataOutputStream, PollRecord)}.
+	 * 
+	 * @param in
+	 *            the buffer to read from.
+	 * @return the poll's state.
+	 */
+	static PollRecord read(ByteBuffer in) {
+		String title = readString(in);
+		String initiator = readString(in);
+		long version = in.getLong();
+
+		List<TimeSlot> timeSlots = new ArrayList<TimeSlot>();
+		for (int i = in.getInt(); i > 0; i--) {
+			Date start = new Date(in.getLong());
+			long end = in.getLong();
+			timeSlots.add(end == -1 ? new TimeSlot(start) : new TimeSlot(
+					start, new Date(end)));
+		}
+
+		String[] names = new String[in.getInt()];
+		for (int i = 0; i < names.length; i++)
+			names[i] = readString(in);
+		Set<String> invitees = new HashSet<String>();
+		for (int i = in.getInt() - 1; i >= 0; i--)
+			invitees.add(names[i]);
+
+		Map<TimeSlot, List<Response>> responses = new HashMap<TimeSlot, List<Response>>();
+		for (TimeSlot timeSlot : timeSlots)
+			responses.put(timeSlot, new ArrayList<Response>());
+
+		Response.Choice[] values = Response.Choice.values();
+		byte[] packed = new byte[(timeSlots.size() * 2 + 7) / 8];
+		for (int r = in.getInt(); r > 0; r--) {
+			String responder = names[in.getInt()];
+			in.get(packed);
+			for (int i = 0; i < timeSlots.size(); i++) {
+				int choice = (packed[i / 4] >> ((i % 4) * 2)) & 0x3;
+				responses.get(timeSlots.get(i)).add(
+						new Response(responder, values[choice]));
+			}
+		}
+
+		Set<String> pending = null;
+		int numPending = in.getInt();
+		if (numPending >= 0) {
+			pending = new HashSet<String>();
+			for (int i = 0; i < numPending; i++) {
+				int id = in.getInt();
+				if (id >= 0)
+					pending.add(names[id]);
+			}
+		}
+
+		int finalSlot = in.getInt();
+		TimeSlot timeSlot = finalSlot < 0 ? null : timeSlots.get(finalSlot);
+
+		return new PollRecord(title, initiator, invitees, responses, timeSlot,
+				pending, version);
+	}
+
+	private static void writeString(DataOutputStream out, String s)
+			throws IOException {
+		byte[] bytes = s.getBytes(UTF8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(ByteBuffer in) {
+		byte[] bytes = new byte[in.getInt()];
+		in.get(bytes);
+		return new String(bytes, UTF8);
+	}
+}
@@ -1,5 +1,6 @@
 package doodle;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -14,6 +15,10 @@ import doodle.Poll.PollKey;
  * A PollStatusPayload also represents users' (invitees') distributed knowledge
  * of a poll.
  * 
+ * A summary status carries the poll's time slots but none of the responses,
+ * only the number of responses and the top time slot. Invitees fetch the
+ * responses of a summarized poll from the poll when they need them.
+ * 
  * @author Jonas Michel
  * 
  */
@@ -32,14 +37,85 @@ public class PollStatusPayload extends Payload {
 	/** The final poll time slot chosen by the poll initiator. */
 	private TimeSlot timeSlot;
 
+	/** The poll's version, incremented by the poll on every change. */
+	private long version;
+
+	/** Whether the responses were left out of this status. */
+	private boolean summary = false;
+
+	/** The number of responses, the top time slot, and its score. */
+	private int numResponses;
+	private TimeSlot topSlot;
+	private float topScore;
+
 	public PollStatusPayload(String title, String initiator,
-			Map<TimeSlot, List<Response>> responses, TimeSlot timeSlot) {
+			Map<TimeSlot, List<Response>> responses, TimeSlot timeSlot,
+			long version) {
 		super();
 
 		this.title = title;
 		this.initiator = initiator;
-		this.responses = new HashMap<TimeSlot, List<Response>>(responses);
+		// copy the response lists, the poll keeps changing its own
+		this.responses = new HashMap<TimeSlot, List<Response>>();
+		for (Map.Entry<TimeSlot, List<Response>> entry : responses.entrySet())
+			this.responses.put(entry.getKey(),
+					new ArrayList<Response>(entry.getValue()));
 		this.timeSlot = timeSlot;
+		this.version = version;
+	}
+
+	/**
+	 * Creates a summary status of a poll.
+	 * 
+	 * @param title
+	 *            the poll's title.
+	 * @param initiator
+	 *            the poll's initiator.
+	 * @param responses
+	 *            the poll's current responses.
+	 * @param timeSlot
+	 *            the poll's final time slot (null if the poll is open).
+	 * @param version
+	 *            the poll's version.
+	 * @return the summary status.
+	 */
+	public static PollStatusPayload summarize(String title, String initiator,
+			Map<TimeSlot, List<Response>> responses, TimeSlot timeSlot,
+			long version) {
+		Map<TimeSlot, List<Response>> slots = new HashMap<TimeSlot, List<Response>>();
+		for (TimeSlot slot : responses.keySet())
+			slots.put(slot, new ArrayList<Response>());
+
+		PollStatusPayload status = new PollStatusPayload(title, initiator,
+				slots, timeSlot, version);
+		status.summary = true;
+		status.numResponses = Poll.getNumResponses(responses);
+
+		Map.Entry<TimeSlot, List<Response>> top = Poll
+				.getTopTimeSlot(responses);
+		if (top != null) {
+			status.topSlot = top.getKey();
+			status.topScore = Poll.calculateResponseBreakdown(top.getValue())[4];
+		}
+
+		return status;
+	}
+
+	/**
+	 * Restores a summary status (e.g., from the inbox).
+	 * 
+	 * @param numResponses
+	 *            the number of responses.
+	 * @param topSlot
+	 *            the top time slot (null if there are no responses).
+	 * @param topScore
+	 *            the top time slot's score.
+	 */
+	void setSummary(int numResponses, TimeSlot topSlot, float topScore) {
+		this.summary = true;
+		this.numResponses = numResponses;
+		this.topSlot = topSlot;
+		this.topScore = topScore;
 	}
 
 	public PollKey getKey() {
@@ -62,19 +138,53 @@ public class PollStatusPayload extends Payload {
 		return timeSlot;
 	}
 
+	public long getVersion() {
+		return version;
+	}
+
 	public boolean isClosed() {
 		return timeSlot != null;
 	}
 
+	public boolean isSummary() {
+		return summary;
+	}
+
 	@Override
-	public String toString() {
-		Map.Entry<TimeSlot, List<Response>> topTimeSlot = Poll
+	public String getOrderingKey() {
+		return getKey().toString();
+	}
+
+	public int getNumResponses() {
+		return summary ? numResponses : Poll.getNumResponses(responses);
+	}
+
+	public TimeSlot getTopSlot() {
+		if (summary)
+			return topSlot;
+
+		Map.Entry<TimeSlot, List<Response>> top = Poll
+				.getTopTimeSlot(responses);
+		return top == null ? null : top.getKey();
+	}
+
+	public float getTopScore() {
+		if (summary)
+			return topScore;
+
+		Map.Entry<TimeSlot, List<Response>> top = Poll
 				.getTopTimeSlot(responses);
-		String topSlot = topTimeSlot == null ? "none" : topTimeSlot.getKey()
+		return top == null ? 0 : Poll.calculateResponseBreakdown(top
+				.getValue())[4];
+	}
+
+	@Override
+	public String toString() {
+		TimeSlot topTimeSlot = getTopSlot();
+		String topSlot = topTimeSlot == null ? "none" : topTimeSlot
 				.toTimeString();
-		String topScore = topTimeSlot == null ? "n/a"
-				: Float.toString(Poll.calculateResponseBreakdown(topTimeSlot
-						.getValue())[4]);
+		String topScore = topTimeSlot == null ? "n/a" : Float
+				.toString(getTopScore());
 		String finalSlot = timeSlot == null ? "none" : timeSlot
 				.toTimeString();
 
@@ -86,7 +196,7 @@ public class PollStatusPayload extends Payload {
 				+ responses.keySet().toArray(
 						new TimeSlot[responses.keySet().size()])[0]
 						.toDayString() + ", # responses: "
-				+ Integer.toString(Poll.getNumResponses(responses))
+				+ Integer.toString(getNumResponses())
 				+ ", top time slot: " + topSlot
 				+ " (score=" + topScore + ")"
 				+ ", final time slot: " + finalSlot + "]";
@@ -0,0 +1,39 @@
+package doodle;
+
+/**
+ * User peers that restart with a locally stored copy of a poll ask the poll for
+ * any changes since that copy by sending it a message containing a PollSync
+ * payload. The poll only replies if it has changed since the given version.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+public class PollSyncPayload extends Payload {
+	private static final long serialVersionUID = -6427164211520539473L;
+
+	/** The requesting invitee's user name. */
+	private String invitee;
+
+	/** The version of the invitee's local copy of the poll. */
+	private long version;
+
+	public PollSyncPayload(String invitee, long version) {
+		super();
+
+		this.invitee = invitee;
+		this.version = version;
+	}
+
+	public String getInvitee() {
+		return invitee;
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	@Override
+	public String getOrderingKey() {
+		return invitee;
+	}
+}
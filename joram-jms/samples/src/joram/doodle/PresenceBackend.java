@@ -0,0 +1,68 @@
+package doodle;
+
+import java.io.IOException;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchService;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Defines how the set of available (online) users is stored and shared among
+ * users. The UsersMonitor watches a backend for changes and keeps its snapshot
+ * of available users current.
+ * 
+ * @author Jonas Michel
+ */
+public interface PresenceBackend {
+
+	/**
+	 * Reads the complete set of available (online) users.
+	 * 
+	 * @return the screen names of the users that are currently online and
+	 *         available.
+	 */
+	public Set<String> readAvailableUsers();
+
+	/**
+	 * Adds a user to the available (online) users.
+	 * 
+	 * @param name
+	 *            the user name to add.
+	 */
+	public void addUser(String name);
+
+	/**
+	 * Removes a user from the available (online) users.
+	 * 
+	 * @param name
+	 *            the user name to remove.
+	 */
+	public void removeUser(String name);
+
+	/**
+	 * Registers the backend's storage location(s) with a watch service.
+	 * 
+	 * @param service
+	 *            the watch service used to detect changes.
+	 * @throws IOException
+	 */
+	public void register(WatchService service) throws IOException;
+
+	/**
+	 * Applies a set of detected changes to the last known available users.
+	 * 
+	 * @param users
+	 *            the last known available users (not modified).
+	 * @param events
+	 *            the watch events detected on one of the registered locations.
+	 * @return the up-to-date available users.
+	 */
+	public Set<String> apply(Set<String> users, List<WatchEvent<?>> events);
+
+	/**
+	 * Clears all available users.
+	 * 
+	 * @return true if successful, false otherwise.
+	 */
+	public boolean reset();
+}
@@ -0,0 +1,124 @@
+package doodle;
+
+import java.net.ConnectException;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.jms.JMSException;
+import javax.naming.Context;
+import javax.naming.NamingException;
+
+import org.objectweb.joram.client.jms.Queue;
+import org.objectweb.joram.client.jms.admin.AdminException;
+
+/**
+ * Manages the lifecycle of the doodle queues created by peers. Every peer in
+ * this JVM that listens on a queue holds a reference to it; a queue may only be
+ * reclaimed (unbound from JNDI and deleted from the Joram server) once its last
+ * reference has been released.
+ * 
+ * Queues provisioned in bulk by the administration are additionally bound
+ * under a provisioning name and are never reclaimed by their peers.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+public class QueueLifecycle {
+
+	/** The prefix of the names provisioned queues are additionally bound to. */
+	public static final String PROVISIONED_PREFIX = "doodle_provisioned";
+
+	/** Counts the references to each doodle queue held in this JVM. */
+	private static final Map<String, Integer> references = new HashMap<String, Integer>();
+
+	/**
+	 * Takes a reference to a doodle queue.
+	 * 
+	 * @param queueName
+	 *            the queue's name.
+	 */
+	public static synchronized void acquire(String queueName) {
+		Integer count = references.get(queueName);
+		references.put(queueName, count == null ? 1 : count + 1);
+	}
+
+	/**
+	 * Releases a reference to a doodle queue.
+	 * 
+	 * @param queueName
+	 *            the queue's name.
+	 * @return true if this was the queue's last reference in this JVM.
+	 */
+	public static synchronized boolean release(String queueName) {
+		Integer count = references.get(queueName);
+		if (count == null)
+			return false; // never acquired
+
+		if (count > 1) {
+			references.put(queueName, count - 1);
+			return false;
+		}
+
+		references.remove(queueName);
+		return true;
+	}
+
+	/**
+	 * Creates the provisioning name of a doodle queue.
+	 * 
+	 * @param queueName
+	 *            the queue's name.
+	 * @return the queue's provisioning name.
+	 */
+	public static String getProvisionedName(String queueName) {
+		return PROVISIONED_PREFIX + "_" + queueName;
+	}
+
+	/**
+	 * Checks whether a doodle queue was provisioned by the administration.
+	 * 
+	 * @param context
+	 *            the JNDI context the queue is bound in.
+	 * @param queueName
+	 *            the queue's name.
+	 * @return true if the queue was provisioned.
+	 */
+	public static boolean isProvisioned(Context context, String queueName) {
+		try {
+			context.lookup(getProvisionedName(queueName));
+			return true;
+
+		} catch (NamingException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Reclaims a doodle queue by unbinding it from JNDI and deleting it. The
+	 * queue's name is only unbound if it is still bound to this queue (a newer
+	 * queue may have been bound under the same name). The caller must hold an
+	 * administration connection.
+	 * 
+	 * @param context
+	 *            the JNDI context the queue is bound in.
+	 * @param queue
+	 *            the queue.
+	 * @throws ConnectException
+	 * @throws AdminException
+	 * @throws JMSException
+	 */
+	public static void reclaim(Context context, Queue queue)
+			throws ConnectException, AdminException, JMSException {
+		try {
+			Object bound = context.lookup(queue.getAdminName());
+			if (bound instanceof Queue
+					&& ((Queue) bound).getName().equals(queue.getName()))
+				context.unbind(queue.getAdminName());
+
+		} catch (NamingException e) {
+			// the queue is not bound
+		}
+
+		queue.delete();
+	}
+}
@@ -0,0 +1,82 @@
+package doodle;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A mailbox that runs the tasks posted to it one at a time, in the order they
+ * were posted, on a shared executor. Posting never blocks or takes a lock: the
+ * tasks are appended to a lock-free queue, and the first post to an idle
+ * mailbox schedules a drain of the queue on the shared executor. Many mailboxes
+ * may therefore share a small pool of threads while each behaves like a single
+ * dedicated thread.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+public class SerialExecutor implements Executor {
+
+	/** The executor the mailbox is drained on. */
+	private final Executor executor;
+
+	/** The posted tasks that have not run yet. */
+	private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+
+	/** Whether a drain of the mailbox is scheduled or running. */
+	private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+	/** Drains the mailbox. */
+	private final Runnable drain = new Runnable() {
+		@Override
+		public void run() {
+			try {
+				Runnable task;
+				while ((task = tasks.poll()) != null) {
+					try {
+						task.run();
+					} catch (RuntimeException e) {
+						e.printStackTrace();
+					}
+				}
+			} finally {
+				scheduled.set(false);
+			}
+
+			// a task may have been posted after the last poll
+			if (!tasks.isEmpty())
+				schedule();
+		}
+	};
+
+	public SerialExecutor(Executor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Posts a task to the mailbox.
+	 * 
+	 * @param task
+	 *            the task to run.
+	 */
+	@Override
+	public void execute(Runnable task) {
+		tasks.add(task);
+		schedule();
+	}
+
+	/**
+	 * Checks whether the mailbox has tasks that have not run yet.
+	 * 
+	 * @return true if the mailbox is empty.
+	 */
+	public boolean isEmpty() {
+		return tasks.isEmpty();
+	}
+
+	private void schedule() {
+		if (scheduled.compareAndSet(false, true))
+			executor.execute(drain);
+	}
+}
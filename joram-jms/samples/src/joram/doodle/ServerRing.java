@@ -0,0 +1,96 @@
+package doodle;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Places doodle queues across the Joram servers of a deployment by consistent
+ * hashing. Each server owns several points (virtual nodes) on a hash ring, and
+ * a queue is placed on the server owning the first point at or after the hash
+ * of the queue's name (derived from a user name or a PollKey). Adding a server
+ * only moves the queues whose hashes fall just before the new server's
+ * points, roughly 1/n of them, and leaves every other placement unchanged.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+public class ServerRing {
+
+	/** The ring built from the configured servers. */
+	private static ServerRing instance = null;
+
+	/** Maps each point on the ring to the id of the server owning it. */
+	private TreeMap<Integer, Integer> points;
+
+	public ServerRing(int[] serverIds, int virtualNodes) {
+		points = new TreeMap<Integer, Integer>();
+
+		for (int serverId : serverIds) {
+			for (int i = 0; i < virtualNodes; i++)
+				points.put(hash("server-" + Integer.toString(serverId) + "-"
+						+ Integer.toString(i)), serverId);
+		}
+	}
+
+	/**
+	 * Returns the ring of the servers configured in Settings.
+	 * 
+	 * @return the configured ring.
+	 */
+	public static synchronized ServerRing getDefault() {
+		if (instance == null)
+			instance = new ServerRing(Settings.SERVER_IDS,
+					Settings.RING_VIRTUAL_NODES);
+
+		return instance;
+	}
+
+	/**
+	 * Finds the server a queue is placed on.
+	 * 
+	 * @param queueName
+	 *            the queue's name.
+	 * @return the id of the owning server.
+	 */
+	public int getServer(String queueName) {
+		Map.Entry<Integer, Integer> point = points
+				.ceilingEntry(hash(queueName));
+		if (point == null)
+			point = points.firstEntry(); // wrap around the ring
+
+		return point.getValue();
+	}
+
+	/**
+	 * Finds the server a Joram destination lives on, from its agent id (of the
+	 * form #server.x.y).
+	 * 
+	 * @param agentId
+	 *            the destination's agent id.
+	 * @return the id of the server.
+	 */
+	public static int getServerOf(String agentId) {
+		return Integer.parseInt(agentId.substring(1, agentId.indexOf('.')));
+	}
+
+	/**
+	 * Hashes a key onto the ring. MD5 spreads similar keys (e.g., user names
+	 * differing by one character) evenly.
+	 */
+	private static int hash(String key) {
+		try {
+			byte[] digest = MessageDigest.getInstance("MD5").digest(
+					key.getBytes(Charset.forName("UTF-8")));
+
+			return ((digest[0] & 0xff) << 24) | ((digest[1] & 0xff) << 16)
+					| ((digest[2] & 0xff) << 8) | (digest[3] & 0xff);
+
+		} catch (NoSuchAlgorithmException e) {
+			// every Java platform supports MD5
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -2,8 +2,201 @@ package doodle;
 
 public class Settings {
 
+	/**
+	 * The transport peers send payloads over, either TRANSPORT_JMS (Joram
+	 * queues), TRANSPORT_MEMORY (in-memory mailboxes, reaching only peers in
+	 * the same JVM, with no broker needed), or TRANSPORT_HYBRID (in-memory
+	 * mailboxes for peers in the same JVM and Joram queues otherwise). May be
+	 * overridden with the doodle.transport system property (e.g., to run
+	 * benchmarks without a broker).
+	 */
+	public static final String TRANSPORT_JMS = "jms";
+	public static final String TRANSPORT_MEMORY = "memory";
+	public static final String TRANSPORT_HYBRID = "hybrid";
+	public static final String TRANSPORT = System.getProperty(
+			"doodle.transport", TRANSPORT_JMS);
+
+	/**
+	 * How polls push response updates to their invitees, either PUSH_FULL (the
+	 * full status with every response) or PUSH_SUMMARY (only the number of
+	 * responses and the top time slot; invitees fetch the responses when they
+	 * show them). Invitations and closings are always pushed in full. Requests
+	 * (e.g., for a poll's responses) time out after REQUEST_TIMEOUT
+	 * milliseconds.
+	 */
+	public static final String PUSH_FULL = "full";
+	public static final String PUSH_SUMMARY = "summary";
+	public static final String PUSH_MODE = PUSH_FULL;
+	public static final long REQUEST_TIMEOUT = 5000;
+
+	/**
+	 * The number of lanes each peer processes its payloads in. Payloads with
+	 * the same ordering key (e.g., the statuses of one poll) always go to the
+	 * same lane and are processed in order; lanes run concurrently. One lane
+	 * processes every payload in arrival order.
+	 */
+	public static final int CONSUMER_LANES = 1;
+
+	/**
+	 * The number of carrier threads shared by the polls of this JVM. Each
+	 * poll runs its events one at a time on one of the carriers, so a few
+	 * carriers serve any number of polls.
+	 */
+	public static final int POLL_CARRIERS = 4;
+
+	/**
+	 * The number of threads that send the polls' updates to their invitees
+	 * (on virtual threads, each send gets its own thread instead).
+	 */
+	public static final int POLL_SENDERS = 16;
+
+	/**
+	 * How often (in milliseconds) a user's event loop polls for changes in the
+	 * available users.
+	 */
+	public static final long EVENT_LOOP_TICK = 100;
+
+	/**
+	 * Whether to run the system's threads as virtual threads, on JVMs that
+	 * support them (Java 21 and later); platform threads are used otherwise.
+	 * May be overridden with the doodle.virtualThreads system property.
+	 */
+	public static final boolean VIRTUAL_THREADS = Boolean
+			.getBoolean("doodle.virtualThreads");
+
+	/**
+	 * The number of alerts a user holds back while its command line is in use.
+	 * Repeated alerts about the same poll are merged; alerts beyond this many
+	 * are dropped and counted.
+	 */
+	public static final int ALERT_BUFFER_SIZE = 256;
+
+	/**
+	 * The maximum number of times per second a user's console is written to.
+	 * Output is buffered in between, so long listings and bursts of alerts
+	 * are written at once.
+	 */
+	public static final int OUTPUT_MAX_FPS = 30;
+
+	/**
+	 * The interval at which users send each invitee a single digest of the
+	 * response updates of the polls they host, in milliseconds. Zero disables
+	 * digests: every response is pushed to the invitees immediately.
+	 */
+	public static final long DIGEST_INTERVAL = 0;
+
+	/**
+	 * Poll deadlines are scheduled on a hashed timer wheel shared by every
+	 * poll, which turns one bucket per tick (in milliseconds).
+	 */
+	public static final long TIMER_TICK = 100;
+	public static final int TIMER_WHEEL_SIZE = 512;
+
+	/**
+	 * How long before a poll's deadline its non-responders are reminded to
+	 * respond, in milliseconds. The reminders due within a timer tick are sent
+	 * together, one message per invitee.
+	 */
+	public static final long[] REMINDER_OFFSETS = { 60 * 60 * 1000,
+			10 * 60 * 1000 };
+
 	/** File path settings for the shared file of available users. */
 	public static final String AVAILABLE_USERS_PATH = "/path/to/directory/containing/users/file";
 	public static final String AVAILABLE_USERS_FILE = "users";
-	
+
+	/**
+	 * The presence backend used to share the available users, either
+	 * PRESENCE_SHARED_FILE (a single shared file) or PRESENCE_SHARDED (a
+	 * hash-sharded directory of per-user marker files).
+	 */
+	public static final String PRESENCE_SHARED_FILE = "file";
+	public static final String PRESENCE_SHARDED = "sharded";
+	public static final String PRESENCE_BACKEND = PRESENCE_SHARED_FILE;
+
+	/** Directory settings for the sharded presence backend. */
+	public static final String AVAILABLE_USERS_DIR = "users.d";
+	public static final int AVAILABLE_USERS_SHARDS = 64;
+
+	/** Directory in which each user keeps its durable poll data. */
+	public static final String DATA_PATH = "/path/to/directory/containing/doodle/data";
+
+	/**
+	 * Poll journal settings. The durability level is one of JOURNAL_NONE
+	 * (written without fsync), JOURNAL_BATCH (fsync'ed in the background every
+	 * commit interval, in milliseconds), or JOURNAL_SYNC (every event waits for
+	 * the group commit that fsyncs it).
+	 */
+	public static final String JOURNAL_FILE = "polls.journal";
+	public static final String JOURNAL_NONE = "none";
+	public static final String JOURNAL_BATCH = "batch";
+	public static final String JOURNAL_SYNC = "sync";
+	public static final String JOURNAL_DURABILITY = JOURNAL_BATCH;
+	public static final long JOURNAL_COMMIT_INTERVAL = 10;
+
+	/**
+	 * Poll snapshot settings. The journal is compacted into a snapshot once
+	 * this many entries have been journaled.
+	 */
+	public static final String SNAPSHOT_FILE = "polls.snapshot";
+	public static final int SNAPSHOT_THRESHOLD = 1000;
+
+	/**
+	 * Poll version settings. A poll's version starts at its initiator's
+	 * restart epoch (stored in the epoch file) shifted left this many bits, so
+	 * versions keep increasing across restarts even if the last changes
+	 * before a crash were broadcast but never journaled.
+	 */
+	public static final String EPOCH_FILE = "polls.epoch";
+	public static final int EPOCH_SHIFT = 32;
+
+	/**
+	 * Invited poll inbox settings. The inbox is rewritten when it holds more
+	 * than this many entries per stored poll.
+	 */
+	public static final String INBOX_FILE = "inbox";
+	public static final int INBOX_COMPACTION_FACTOR = 4;
+
+	/**
+	 * Closed poll settings. Closed polls are archived to disk and at most this
+	 * many of them are cached in memory (per kind of closed poll). The archive
+	 * is rewritten when it holds more than this many entries per closed poll.
+	 */
+	public static final String ARCHIVE_FILE = "closed.archive";
+	public static final int CLOSED_POLL_CACHE_SIZE = 32;
+	public static final int ARCHIVE_COMPACTION_FACTOR = 4;
+
+	/**
+	 * Queue sweep settings. The administration's queue sweep checks and
+	 * reclaims orphaned doodle queues this many at a time, and only reclaims
+	 * a queue that is still orphaned this many milliseconds after it was first
+	 * found orphaned (longer than a user takes to log on).
+	 */
+	public static final int SWEEP_BATCH_SIZE = 100;
+	public static final long SWEEP_GRACE_PERIOD = 60000;
+
+	/**
+	 * Roster provisioning settings. The administration creates and binds the
+	 * queues of a roster's users this many at a time.
+	 */
+	public static final int PROVISION_BATCH_SIZE = 100;
+
+	/**
+	 * Joram server settings. Doodle queues are placed across these servers by
+	 * consistent hashing, with this many points per server on the hash ring.
+	 * The ids, hosts, and TCP ports must match the a3servers.xml in use (e.g.,
+	 * servers 0, 1, and 2 on ports 16010, 16011, and 16012 for
+	 * distributed_a3servers.xml). JNDI is served by the first server.
+	 */
+	public static final int[] SERVER_IDS = { 0 };
+	public static final String[] SERVER_HOSTS = { "localhost" };
+	public static final int[] SERVER_PORTS = { 16010 };
+	public static final int RING_VIRTUAL_NODES = 128;
+
+	/**
+	 * Embedded server settings. The id of the server in a3servers.xml and the
+	 * directory the embedded server keeps its storage in.
+	 */
+	public static final short EMBEDDED_SERVER_ID = 0;
+	public static final String EMBEDDED_STORAGE_DIR = "s0";
+
 }
@@ -0,0 +1,182 @@
+package doodle;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A presence backend in which every available user owns a marker file in a
+ * hash-sharded directory tree (e.g., users.d/2a/user-alice). Logging on and
+ * off create and delete a single marker file, so neither operation rewrites
+ * shared state nor grows in cost with the number of available users, and
+ * concurrent log-offs cannot overwrite each other.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+public class ShardedPresenceBackend implements PresenceBackend {
+
+	/** The marker file naming prefix. */
+	public static final String MARKER_PREFIX = "user-";
+
+	/** The root of the sharded directory tree. */
+	private Path root;
+
+	public ShardedPresenceBackend() {
+		root = Paths.get(Settings.AVAILABLE_USERS_PATH,
+				Settings.AVAILABLE_USERS_DIR);
+	}
+
+	@Override
+	public Set<String> readAvailableUsers() {
+		Set<String> users = new HashSet<String>();
+
+		for (int i = 0; i < Settings.AVAILABLE_USERS_SHARDS; i++) {
+			Path shard = getShard(i);
+			if (!Files.isDirectory(shard))
+				continue;
+
+			try (DirectoryStream<Path> markers = Files
+					.newDirectoryStream(shard)) {
+				for (Path marker : markers) {
+					String name = getUserName(marker);
+					if (name != null)
+						users.add(name);
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+
+		return users;
+	}
+
+	@Override
+	public void addUser(String name) {
+		try {
+			Path marker = getMarker(name);
+			Files.createDirectories(marker.getParent());
+			Files.createFile(marker);
+
+		} catch (FileAlreadyExistsException e) {
+			// the user is already available
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	@Override
+	public void removeUser(String name) {
+		try {
+			Files.deleteIfExists(getMarker(name));
+
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	@Override
+	public void register(WatchService service) throws IOException {
+		for (int i = 0; i < Settings.AVAILABLE_USERS_SHARDS; i++) {
+			Path shard = getShard(i);
+			Files.createDirectories(shard);
+			shard.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+					StandardWatchEventKinds.ENTRY_DELETE);
+		}
+	}
+
+	@Override
+	public Set<String> apply(Set<String> users, List<WatchEvent<?>> events) {
+		Set<String> availableUsers = new HashSet<String>(users);
+
+		for (WatchEvent<?> event : events) {
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW)
+				return readAvailableUsers(); // events were lost, rescan
+
+			String name = getUserName((Path) event.context());
+			if (name == null)
+				continue;
+
+			if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE)
+				availableUsers.add(name);
+			else if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE)
+				availableUsers.remove(name);
+		}
+
+		return availableUsers;
+	}
+
+	@Override
+	public boolean reset() {
+		boolean success = true;
+
+		for (String name : readAvailableUsers()) {
+			try {
+				Files.deleteIfExists(getMarker(name));
+			} catch (IOException e) {
+				e.printStackTrace();
+				success = false;
+			}
+		}
+
+		return success;
+	}
+
+	/**
+	 * Returns the directory of a particular shard.
+	 * 
+	 * @param shard
+	 *            a shard index.
+	 * @return the shard's directory.
+	 */
+	private Path getShard(int shard) {
+		return root.resolve(String.format("%02x", shard));
+	}
+
+	/**
+	 * Returns the marker file owned by a user.
+	 * 
+	 * @param name
+	 *            a user name.
+	 * @return the path of the user's marker file.
+	 */
+	private Path getMarker(String name) throws IOException {
+		int shard = (name.hashCode() & 0x7fffffff)
+				% Settings.AVAILABLE_USERS_SHARDS;
+
+		return getShard(shard).resolve(
+				MARKER_PREFIX + URLEncoder.encode(name, "UTF-8"));
+	}
+
+	/**
+	 * Decodes the user name from a marker file path.
+	 * 
+	 * @param marker
+	 *            a marker file path.
+	 * @return the user name, or null if the path is not a marker file.
+	 */
+	private String getUserName(Path marker) {
+		String fileName = marker.getFileName().toString();
+		if (!fileName.startsWith(MARKER_PREFIX))
+			return null;
+
+		try {
+			return URLDecoder.decode(
+					fileName.substring(MARKER_PREFIX.length()), "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			return null;
+		}
+	}
+}
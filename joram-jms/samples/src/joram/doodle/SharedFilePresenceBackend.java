@@ -0,0 +1,150 @@
+package doodle;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The original presence backend: a single shared file listing the names of
+ * all available users, one per line.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+public class SharedFilePresenceBackend implements PresenceBackend {
+
+	@Override
+	public Set<String> readAvailableUsers() {
+		Set<String> users = new HashSet<String>();
+
+		try {
+			File dir = new File(Settings.AVAILABLE_USERS_PATH);
+			File file = new File(dir, Settings.AVAILABLE_USERS_FILE);
+			BufferedReader in = new BufferedReader(new FileReader(file));
+
+			synchronized (file) {
+				String name;
+				while (in.ready()) {
+					name = in.readLine().trim();
+					if (name.equals(""))
+						continue; // skip blank lines
+
+					users.add(name);
+				}
+
+				in.close();
+			}
+
+		} catch (FileNotFoundException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		} catch (IOException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
+
+		return users;
+	}
+
+	@Override
+	public void addUser(String name) {
+		try {
+			File dir = new File(Settings.AVAILABLE_USERS_PATH);
+			File file = new File(dir, Settings.AVAILABLE_USERS_FILE);
+			PrintWriter writer = new PrintWriter(new BufferedWriter(
+					new FileWriter(file, true)));
+
+			synchronized (file) {
+				writer.println(name);
+				writer.close();
+			}
+
+		} catch (IOException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
+	}
+
+	@Override
+	public void removeUser(String name) {
+		try {
+			File dir = new File(Settings.AVAILABLE_USERS_PATH);
+			File file = new File(dir, Settings.AVAILABLE_USERS_FILE);
+			File temp = new File(dir, Settings.AVAILABLE_USERS_FILE + "."
+					+ name);
+
+			BufferedReader reader = new BufferedReader(new FileReader(file));
+			PrintWriter writer = new PrintWriter(new BufferedWriter(
+					new FileWriter(temp)));
+
+			synchronized (file) {
+				String remove = name;
+				String line;
+
+				while ((line = reader.readLine()) != null) {
+					// trim newline when comparing with lineToRemove
+					if (line.equals(remove))
+						continue;
+
+					writer.println(line);
+				}
+
+				writer.close();
+				reader.close();
+
+				temp.renameTo(file);
+			}
+
+		} catch (IOException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
+	}
+
+	@Override
+	public void register(WatchService service) throws IOException {
+		Path path = Paths.get(Settings.AVAILABLE_USERS_PATH);
+		path.register(service, StandardWatchEventKinds.ENTRY_MODIFY);
+	}
+
+	@Override
+	public Set<String> apply(Set<String> users, List<WatchEvent<?>> events) {
+		// any change may have rewritten the whole file
+		return readAvailableUsers();
+	}
+
+	@Override
+	public boolean reset() {
+		try {
+			File dir = new File(Settings.AVAILABLE_USERS_PATH);
+			File file = new File(dir, Settings.AVAILABLE_USERS_FILE);
+			File temp = new File(dir, Settings.AVAILABLE_USERS_FILE + ".empty");
+
+			PrintWriter writer = new PrintWriter(new BufferedWriter(
+					new FileWriter(temp)));
+			writer.print("");
+			writer.close();
+
+			return temp.renameTo(file);
+
+		} catch (IOException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
+
+		return false;
+	}
+}
@@ -0,0 +1,179 @@
+package doodle;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the threads the doodle poll system runs its work on. If
+ * Settings.VIRTUAL_THREADS is set and the JVM supports virtual threads (Java
+ * 21 and later), every thread is a virtual thread and executors start one per
+ * task, so blocking work needs no sized pool. Otherwise the threads are
+ * platform threads and executors pool them. Virtual threads are looked up by
+ * reflection, so the system still builds and runs on older JVMs.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+public class Threads {
+
+	/** Whether virtual threads are used. */
+	private static final boolean virtual = Settings.VIRTUAL_THREADS
+			&& supportsVirtual();
+
+	/**
+	 * Checks whether work runs on virtual threads.
+	 * 
+	 * @return true if virtual threads are used.
+	 */
+	public static boolean isVirtual() {
+		return virtual;
+	}
+
+	/**
+	 * Creates an executor for short tasks: a virtual thread per task, or an
+	 * unbounded pool of daemon threads.
+	 * 
+	 * @param prefix
+	 *            the prefix of the threads' names.
+	 * @return the executor.
+	 */
+	public static ExecutorService newExecutor(String prefix) {
+		if (isVirtual())
+			return newVirtualExecutor(prefix);
+
+		return Executors.newCachedThreadPool(newDaemonFactory(prefix));
+	}
+
+	/**
+	 * Creates an executor that runs at most a number of tasks at a time on
+	 * platform threads. On virtual threads the number is not needed, each task
+	 * gets a virtual thread.
+	 * 
+	 * @param prefix
+	 *            the prefix of the threads' names.
+	 * @param numThreads
+	 *            the number of platform threads.
+	 * @return the executor.
+	 */
+	public static ExecutorService newFixedExecutor(String prefix,
+			int numThreads) {
+		if (isVirtual())
+			return newVirtualExecutor(prefix);
+
+		return Executors.newFixedThreadPool(numThreads,
+				newDaemonFactory(prefix));
+	}
+
+	/**
+	 * Starts a thread. Virtual threads are always daemon threads: a program
+	 * whose main thread must wait for a non-daemon thread should join it.
+	 * 
+	 * @param name
+	 *            the thread's name.
+	 * @param task
+	 *            the thread's work.
+	 * @param daemon
+	 *            whether the thread is a daemon (platform threads only).
+	 * @return the started thread.
+	 */
+	public static Thread start(String name, Runnable task, boolean daemon) {
+		Thread thread;
+		if (isVirtual()) {
+			thread = invoke(invoke(newVirtualBuilder(), "name", name),
+					"unstarted", task);
+		} else {
+			thread = new Thread(task, name);
+			thread.setDaemon(daemon);
+		}
+
+		thread.start();
+		return thread;
+	}
+
+	private static ThreadFactory newDaemonFactory(final String prefix) {
+		return new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, prefix + "-"
+						+ Integer.toString(count.incrementAndGet()));
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+
+	private static ExecutorService newVirtualExecutor(String prefix) {
+		ThreadFactory factory = invoke(invoke(newVirtualBuilder(), "name",
+				prefix + "-", 1L), "factory");
+
+		try {
+			return (ExecutorService) Executors.class.getMethod(
+					"newThreadPerTaskExecutor", ThreadFactory.class).invoke(
+					null, factory);
+
+		} catch (Exception e) {
+			// found along with Thread.ofVirtual
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Checks that the JVM has Thread.ofVirtual() and that it works (it may be
+	 * a disabled preview feature).
+	 * 
+	 * @return true if the JVM supports virtual threads.
+	 */
+	private static boolean supportsVirtual() {
+		try {
+			invoke(newVirtualBuilder(), "unstarted", new Runnable() {
+				@Override
+				public void run() {
+				}
+			});
+
+			return true;
+
+		} catch (IllegalStateException e) {
+			System.err.println("Virtual threads are not supported by this "
+					+ "JVM, using platform threads");
+			return false;
+		}
+	}
+
+	/**
+	 * Returns a new virtual thread builder (builders are not thread-safe).
+	 */
+	private static Object newVirtualBuilder() {
+		try {
+			return Thread.class.getMethod("ofVirtual").invoke(null);
+
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Invokes a method of a Thread.Builder.
+	 */
+	@SuppressWarnings("unchecked")
+	private static <T> T invoke(Object builder, String method,
+			Object... args) {
+		try {
+			Class<?> type = Class.forName("java.lang.Thread$Builder");
+			for (Method m : type.getMethods()) {
+				if (m.getName().equals(method)
+						&& m.getParameterTypes().length == args.length)
+					return (T) m.invoke(builder, args);
+			}
+			throw new NoSuchMethodException(method);
+
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -1,5 +1,8 @@
 package doodle;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Serializable;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
@@ -77,6 +80,34 @@ public class TimeSlot implements Serializable {
 		return cal.getTime();
 	}
 
+	/**
+	 * Writes the time slot in a compact binary form.
+	 * 
+	 * @param out
+	 *            the output to write to.
+	 * @throws IOException
+	 */
+	public void write(DataOutput out) throws IOException {
+		out.writeLong(start.getTime());
+		out.writeLong(end == null ? -1 : end.getTime());
+	}
+
+	/**
+	 * Reads a time slot written by {@link #write(DataOutput)}.
+	 * 
+	 * @param in
+	 *            the input to read from.
+	 * @return the time slot.
+	 * @throws IOException
+	 */
+	public static TimeSlot read(DataInput in) throws IOException {
+		Date start = new Date(in.readLong());
+		long end = in.readLong();
+
+		return end == -1 ? new TimeSlot(start) : new TimeSlot(start,
+				new Date(end));
+	}
+
 	public String toDayString() {
 		SimpleDateFormat day = new SimpleDateFormat("MM/dd/yyyy");
 		return day.format(start);
@@ -0,0 +1,195 @@
+package doodle;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * A hashed timer wheel shared by every poll in the JVM. Time is divided into
+ * ticks, and the wheel is a circular array of buckets, one per tick; a task is
+ * put in the bucket of the tick its deadline falls in, along with the number
+ * of full turns of the wheel left until then. A single thread advances the
+ * wheel one bucket per tick and runs the tasks of the current bucket that have
+ * no turns left. Scheduling and cancelling a task take constant time, and
+ * waiting tasks cost nothing but their bucket entry, so tens of thousands of
+ * poll deadlines need neither a thread nor a timer each.
+ * 
+ * Deadlines are only precise to a tick or two. Expired tasks are run on a pool
+ * of daemon threads, so slow tasks (e.g., closing a poll) never hold up the
+ * wheel.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+public class TimerWheel extends Thread {
+
+	/** The wheel built from the settings. */
+	private static TimerWheel instance = null;
+
+	/** The threads expired tasks are run on. */
+	private static final ExecutorService runners = Threads
+			.newExecutor("TimerWheel");
+
+	/** The duration of a tick, in milliseconds. */
+	private final long tickDuration;
+
+	/** The wheel's buckets (only accessed by the wheel's thread). */
+	private final List<Set<Timeout>> buckets;
+
+	/** Maps a tick to its bucket (the number of buckets is a power of two). */
+	private final int mask;
+
+	/** The newly scheduled tasks, not yet put in their buckets. */
+	private final Queue<Timeout> scheduled = new ConcurrentLinkedQueue<Timeout>();
+
+	/** The time the wheel started turning. */
+	private final long startTime;
+
+	/** The number of ticks elapsed since the wheel started turning. */
+	private long tick = 0;
+
+	public TimerWheel(long tickDuration, int size) {
+		super("TimerWheel");
+		setDaemon(true);
+
+		int numBuckets = 1;
+		while (numBuckets < size)
+			numBuckets <<= 1;
+
+		this.tickDuration = tickDuration;
+		buckets = new ArrayList<Set<Timeout>>(numBuckets);
+		for (int i = 0; i < numBuckets; i++)
+			buckets.add(new HashSet<Timeout>());
+		mask = numBuckets - 1;
+
+		startTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * Returns the wheel configured in Settings, starting it if necessary.
+	 * 
+	 * @return the shared wheel.
+	 */
+	public static synchronized TimerWheel getDefault() {
+		if (instance == null) {
+			instance = new TimerWheel(Settings.TIMER_TICK,
+					Settings.TIMER_WHEEL_SIZE);
+			instance.start();
+		}
+
+		return instance;
+	}
+
+	/**
+	 * Schedules a task to run at a given time. A task whose time has already
+	 * passed runs on the next tick.
+	 * 
+	 * @param task
+	 *            the task to run.
+	 * @param time
+	 *            the time to run the task at, in milliseconds since the epoch.
+	 * @return the task's timeout, which may be used to cancel it.
+	 */
+	public Timeout schedule(Runnable task, long time) {
+		Timeout timeout = new Timeout(task, time);
+		scheduled.add(timeout);
+
+		return timeout;
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			long sleep = startTime + (tick + 1) * tickDuration
+					- System.currentTimeMillis();
+			if (sleep > 0) {
+				try {
+					Thread.sleep(sleep);
+				} catch (InterruptedException e) {
+					continue;
+				}
+			}
+
+			transfer();
+			expire(buckets.get((int) (tick & mask)));
+			tick++;
+		}
+	}
+
+	/**
+	 * Puts the newly scheduled tasks in their buckets.
+	 */
+	private void transfer() {
+		Timeout timeout;
+		while ((timeout = scheduled.poll()) != null) {
+			if (timeout.cancelled)
+				continue;
+
+			// the tick the task's time falls in (the current one if it passed)
+			long due = Math.max((timeout.time - startTime) / tickDuration, tick);
+
+			timeout.rounds = (due - tick) / buckets.size();
+			buckets.get((int) (due & mask)).add(timeout);
+		}
+	}
+
+	/**
+	 * Runs the tasks of a bucket that have no turns of the wheel left, and
+	 * drops the cancelled ones.
+	 */
+	private void expire(Set<Timeout> bucket) {
+		Iterator<Timeout> it = bucket.iterator();
+		while (it.hasNext()) {
+			Timeout timeout = it.next();
+
+			if (timeout.cancelled) {
+				it.remove();
+			} else if (timeout.rounds <= 0) {
+				it.remove();
+				runners.execute(timeout.task);
+			} else {
+				timeout.rounds--;
+			}
+		}
+	}
+
+	/**
+	 * A task scheduled on the wheel.
+	 */
+	public static class Timeout {
+
+		/** The task to run. */
+		private final Runnable task;
+
+		/** The time to run the task at. */
+		private final long time;
+
+		/** The full turns of the wheel left before the task runs. */
+		private long rounds;
+
+		/** Whether the task was cancelled. */
+		private volatile boolean cancelled = false;
+
+		private Timeout(Runnable task, long time) {
+			this.task = task;
+			this.time = time;
+		}
+
+		/**
+		 * Cancels the task, unless it already ran. The task is dropped from
+		 * its bucket the next time the wheel passes it.
+		 */
+		public void cancel() {
+			cancelled = true;
+		}
+
+		public long getTime() {
+			return time;
+		}
+	}
+}
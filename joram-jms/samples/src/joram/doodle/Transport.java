@@ -0,0 +1,71 @@
+package doodle;
+
+/**
+ * Moves payloads between peers. Each peer owns a transport, which listens on
+ * the peer's queue while the peer is started and delivers the payloads sent to
+ * that queue to the peer's deliver method, one at a time and in the order
+ * they were sent by any one sender.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+public interface Transport {
+
+	/**
+	 * Starts listening on a queue on behalf of a peer.
+	 * 
+	 * @param queueName
+	 *            the name of the peer's queue.
+	 * @param peer
+	 *            the peer payloads are delivered to.
+	 */
+	public void start(String queueName, Peer peer);
+
+	/**
+	 * Stops listening. Does nothing if the transport was never started.
+	 */
+	public void stop();
+
+	/**
+	 * Stops listening for good and releases the peer's queue.
+	 * 
+	 * @param keepUndelivered
+	 *            whether the queue should be kept if it holds undelivered
+	 *            payloads (for the peer's next session).
+	 */
+	public void retire(boolean keepUndelivered);
+
+	/**
+	 * Checks whether the transport is listening.
+	 * 
+	 * @return true if the transport is listening.
+	 */
+	public boolean isStarted();
+
+	/**
+	 * Sends a payload to a peer's queue.
+	 * 
+	 * @param queueName
+	 *            the name of the receiving peer's queue.
+	 * @param payload
+	 *            the payload to send.
+	 * @return true if the payload was delivered successfully, false otherwise
+	 *         (e.g., the receiving peer's queue does not exist).
+	 */
+	public boolean send(String queueName, Payload payload);
+
+	/**
+	 * Sends a request to a peer's queue and waits for the peer's reply (see
+	 * Peer.onRequest).
+	 * 
+	 * @param queueName
+	 *            the name of the receiving peer's queue.
+	 * @param request
+	 *            the request to send.
+	 * @param timeout
+	 *            the maximum time to wait for the reply, in milliseconds.
+	 * @return the reply, or null if the peer could not be reached or did not
+	 *         reply in time.
+	 */
+	public Payload request(String queueName, Payload request, long timeout);
+}
@@ -1,19 +1,27 @@
 package doodle;
 
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
-import javax.jms.JMSException;
-import javax.jms.Message;
-import javax.jms.ObjectMessage;
-
-import org.objectweb.joram.client.jms.TextMessage;
-
+import doodle.EventLoop.Event;
 import doodle.Poll.PollKey;
+import doodle.PollInbox.Folder;
+import doodle.ui.Console;
 import doodle.ui.DoodleUserUIHandler;
+import doodle.ui.DragonConsole;
+import doodle.ui.StreamConsole;
 import doodle.ui.UIHandlerDelegate;
 
 /**
@@ -35,52 +43,142 @@ import doodle.ui.UIHandlerDelegate;
  * @author Jonas Michel
  * 
  */
-public class User extends Peer implements UsersMonitorDelegate,
-		UIHandlerDelegate, PollDelegate {
+public class User extends Peer implements UIHandlerDelegate, PollDelegate,
+		PollJournalDelegate {
 	/** The user's name. */
 	private String name;
 
 	/** Holds the open polls initiated by this user. */
 	private Map<String, Poll> openInitiatedPolls;
 
-	/** Holds the closed polls initiated by this user. */
-	private Map<String, Poll> closedInitiatedPolls;
+	/**
+	 * Holds the polls initiated by this user that are being closed: no longer
+	 * open, but not archived yet. The journal still snapshots them.
+	 */
+	private ConcurrentMap<String, Poll> closingInitiatedPolls;
+
+	/**
+	 * Holds the closed polls initiated by this user. Only the most recently
+	 * used ones are kept in memory; the rest are loaded from the archive.
+	 */
+	private ClosedPollCache<String, Poll> closedInitiatedPolls;
 
 	/**
 	 * Holds the open polls this user has been invited to participate in, but
 	 * not yet responded to.
 	 */
-	private Map<PollKey, PollStatusPayload> openInvitedPolls;
+	private ConcurrentMap<PollKey, PollStatusPayload> openInvitedPolls;
 
 	/**
 	 * Holds the open polls this user has been invited to participate in and has
 	 * already responded to.
 	 */
-	private Map<PollKey, PollStatusPayload> respondedInvitedPolls;
+	private ConcurrentMap<PollKey, PollStatusPayload> respondedInvitedPolls;
+
+	/**
+	 * Holds the closed polls this user has been invited to participate in.
+	 * Only the most recently used ones are kept in memory; the rest are loaded
+	 * from the inbox.
+	 */
+	private ClosedPollCache<PollKey, PollStatusPayload> closedInvitedPolls;
+
+	/**
+	 * Indexes the titles of the polls initiated by this user that have
+	 * undelivered (pending) state by invitee name.
+	 */
+	private Map<String, Set<String>> pendingPolls;
 
-	/** Holds the closed polls this user has been invited to participate in. */
-	private Map<PollKey, PollStatusPayload> closedInvitedPolls;
+	/** Durably records the events of the polls initiated by this user. */
+	private PollJournal journal;
+
+	/** Durably stores the closed polls initiated by this user. */
+	private PollArchive archive;
+
+	/**
+	 * Batches the response updates of the polls initiated by this user per
+	 * invitee (null if digests are disabled).
+	 */
+	private PollDigest digest;
+
+	/** Reminds the non-responders of the polls initiated by this user. */
+	private PollReminders reminders;
+
+	/** Persistently stores the polls this user has been invited to. */
+	private PollInbox inbox;
+
+	/**
+	 * Carries the user's command lines, presence changes, inbound messages and
+	 * alerts to the user's single event thread (the UI handler).
+	 */
+	private EventLoop loop;
 
 	/** The command line interface exposed to the user. */
 	private DoodleUserUIHandler uiHandler;
 
+	/** The thread running the event loop (see Threads). */
+	private Thread eventThread;
+
 	/**
-	 * Monitors the currently available (online) users and alerts us of any
-	 * changes.
+	 * Monitors the currently available (online) users, polled by the event
+	 * loop for any changes.
 	 */
 	private UsersMonitor usersMonitor;
 
 	public User() {
+		this(new DragonConsole());
+	}
+
+	/**
+	 * Creates a user whose command line interface runs on a console (e.g., a
+	 * headless console driven by a script). Headless users can be created many
+	 * times in the same process, each under a distinct name.
+	 * 
+	 * @param console
+	 *            the user's console.
+	 */
+	public User(Console console) {
 		super(Role.USER);
 
-		openInitiatedPolls = new HashMap<String, Poll>();
-		closedInitiatedPolls = new HashMap<String, Poll>();
+		openInitiatedPolls = new ConcurrentHashMap<String, Poll>();
+		closingInitiatedPolls = new ConcurrentHashMap<String, Poll>();
+		closedInitiatedPolls = new ClosedPollCache<String, Poll>(
+				new ClosedPollCache.Loader<String, Poll>() {
+					@Override
+					public Poll load(String title) {
+						PollRecord record = archive.get(title);
+						if (record == null)
+							return null;
+
+						return new Poll(record, User.this, journal);
+					}
+
+					@Override
+					public void store(String title, Poll poll) {
+						archive.put(poll.toRecord());
+					}
+				}, Settings.CLOSED_POLL_CACHE_SIZE);
 		openInvitedPolls = new ConcurrentHashMap<PollKey, PollStatusPayload>();
 		respondedInvitedPolls = new ConcurrentHashMap<PollKey, PollStatusPayload>();
-		closedInvitedPolls = new ConcurrentHashMap<PollKey, PollStatusPayload>();
-
-		uiHandler = new DoodleUserUIHandler(this);
-		usersMonitor = new UsersMonitor(this);
+		closedInvitedPolls = new ClosedPollCache<PollKey, PollStatusPayload>(
+				new ClosedPollCache.Loader<PollKey, PollStatusPayload>() {
+					@Override
+					public PollStatusPayload load(PollKey key) {
+						return inbox.getClosed(key);
+					}
+
+					@Override
+					public void store(PollKey key, PollStatusPayload poll) {
+						inbox.put(Folder.CLOSED, poll);
+					}
+				}, Settings.CLOSED_POLL_CACHE_SIZE);
+		pendingPolls = new HashMap<String, Set<String>>();
+
+		loop = new EventLoop();
+		uiHandler = new DoodleUserUIHandler(this, loop, console);
+
+		// keep the available users current while we acquire a name
+		usersMonitor = new UsersMonitor();
+		loop.addSource(usersMonitor);
 
 		// acquire a unique user name
 		while (true) {
@@ -94,14 +192,129 @@ public class User extends Peer implements UsersMonitorDelegate,
 					.println("Sorry, that user name is taken. Please try again...");
 		}
 
+		// restore the polls this user was invited to before it last went
+		// offline (before any new invitations can arrive)
+		restoreInbox();
+
 		// start the user as a peer in the doodle system
 		start(name);
 
+		if (Settings.DIGEST_INTERVAL > 0) {
+			digest = new PollDigest(name, this);
+			digest.start();
+		}
+		reminders = new PollReminders(name, this);
+
+		// restore the polls this user initiated before it last went offline
+		recoverPolls();
+
+		// ask the restored invited polls for any changes
+		syncInvitedPolls();
+
 		// log the user onto the doodle system
 		// (this will alert other users that we are online and available)
 		logOn();
-		usersMonitor.start();
-		uiHandler.start();
+		eventThread = Threads.start("EventLoop-" + name, uiHandler, false);
+	}
+
+	/**
+	 * Opens the user's archive of closed polls and poll journal, and restores
+	 * every poll they record. Archived polls are only indexed. Restored open
+	 * polls re-register their listening queues in the background; closed polls
+	 * never need them. Invitees that are already online are caught up.
+	 */
+	private void recoverPolls() {
+		try {
+			archive = new PollArchive(name);
+			Map<String, Set<String>> archived = archive.open();
+			for (Map.Entry<String, Set<String>> entry : archived.entrySet()) {
+				closedInitiatedPolls.index(entry.getKey());
+				for (String invitee : entry.getValue())
+					pollPending(entry.getKey(), invitee);
+			}
+
+			PollJournal journal = new PollJournal(name, this);
+			Map<String, PollRecord> records = journal.recover();
+			journal.start();
+			this.journal = journal;
+
+			final List<Poll> detached = new ArrayList<Poll>();
+			for (PollRecord record : records.values()) {
+				if (record.isClosed() && archived.containsKey(record.getTitle()))
+					continue; // already archived
+
+				Poll poll = new Poll(record, this, journal);
+				if (poll.isClosed()) {
+					// finish archiving a poll closed before the last shutdown
+					closedInitiatedPolls.put(poll.getTitle(), poll);
+				} else {
+					openInitiatedPolls.put(poll.getTitle(), poll);
+					detached.add(poll);
+				}
+			}
+
+			int restored = openInitiatedPolls.size()
+					+ closedInitiatedPolls.size();
+			if (restored == 0)
+				return;
+
+			Threads.start("PollLoader-" + name, new Runnable() {
+				@Override
+				public void run() {
+					for (Poll poll : detached)
+						poll.attach();
+				}
+			}, true);
+
+			uiHandler.println("Restored " + Integer.toString(restored)
+					+ " poll(s) you initiated");
+
+			for (String user : usersMonitor.getAvailableUsers())
+				catchUp(user);
+
+		} catch (IOException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Loads the user's inbox of invited polls.
+	 */
+	private void restoreInbox() {
+		inbox = new PollInbox(name);
+
+		try {
+			Map<PollKey, PollInbox.Entry> entries = inbox.load();
+			for (PollInbox.Entry entry : entries.values()) {
+				PollStatusPayload poll = entry.getPoll();
+				if (entry.getFolder() == Folder.OPEN)
+					openInvitedPolls.put(poll.getKey(), poll);
+				else
+					respondedInvitedPolls.put(poll.getKey(), poll);
+			}
+
+			// closed polls are loaded from the inbox when they are needed
+			for (PollKey key : inbox.getClosedKeys())
+				closedInvitedPolls.index(key);
+
+		} catch (IOException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Asks each open invited poll for any changes since the version stored in
+	 * the inbox. Closed polls are final and need no update.
+	 */
+	private void syncInvitedPolls() {
+		for (PollStatusPayload poll : openInvitedPolls.values())
+			send(poll.getKey().toString(), Role.POLL, new PollSyncPayload(name,
+					poll.getVersion()));
+		for (PollStatusPayload poll : respondedInvitedPolls.values())
+			send(poll.getKey().toString(), Role.POLL, new PollSyncPayload(name,
+					poll.getVersion()));
 	}
 
 	/**
@@ -118,96 +331,374 @@ public class User extends Peer implements UsersMonitorDelegate,
 		usersMonitor.removeUser(name);
 	}
 
+	/**
+	 * Posts a payload that arrived on the user's listening queue to the
+	 * user's event loop (unless payloads are processed in several consumer
+	 * lanes).
+	 */
 	@Override
-	public void onMessage(Message message) {
-		try {
-			if (message instanceof TextMessage)
-				return; // ObjectMessages only
+	public void deliver(Payload payload) {
+		if (Settings.CONSUMER_LANES > 1) {
+			super.deliver(payload);
+			return;
+		}
 
-			Payload payload = (Payload) ((ObjectMessage) message).getObject();
-			if (!(payload instanceof PollStatusPayload))
-				return; // user peers only receive PollStatus messages
+		loop.post(Event.message(payload));
+	}
+
+	@Override
+	public void onPayload(Payload payload) {
+		if (payload instanceof PollReminderPayload) {
+			remind((PollReminderPayload) payload);
+			return;
+		}
+
+		if (!(payload instanceof PollStatusPayload)
+				&& !(payload instanceof PollBatchPayload))
+			return; // user peers only receive PollStatus messages
+
+		if (payload instanceof PollBatchPayload) {
+			// a batch of status updates (e.g., a digest or a catch-up after
+			// logging on) raises a single alert
+			List<PollStatusPayload> polls = ((PollBatchPayload) payload)
+					.getStatuses();
+			if (polls.size() == 1) {
+				alert(polls.get(0), receive(polls.get(0)));
+				return;
+			}
 
+			int invitations = 0, updates = 0, closings = 0;
+			for (PollStatusPayload poll : polls) {
+				switch (receive(poll)) {
+				case INVITATION:
+					invitations++;
+					break;
+				case RESPONSES:
+					updates++;
+					break;
+				case CLOSING:
+					closings++;
+					break;
+				default:
+					break;
+				}
+			}
+
+			alert(invitations, updates, closings);
+		} else {
 			PollStatusPayload poll = (PollStatusPayload) payload;
-			if (openInvitedPolls.containsKey(poll.getKey())
-					|| respondedInvitedPolls.containsKey(poll.getKey())) {
-				// this is a status update for a poll we've already been invited
-				// to
-				if (poll.isClosed()) {
-					// the poll was closed
-					openInvitedPolls.remove(poll.getKey());
-					respondedInvitedPolls.remove(poll.getKey());
+			alert(poll, receive(poll));
+		}
+	}
 
-					closedInvitedPolls.put(poll.getKey(), poll);
+	/**
+	 * Delivers a single alert for the reminded polls this user still has to
+	 * respond to.
+	 * 
+	 * @param reminder
+	 *            the reminder.
+	 */
+	private void remind(PollReminderPayload reminder) {
+		List<String> titles = new ArrayList<String>();
+		long deadline = 0;
+		for (Map.Entry<String, Long> entry : reminder.getDeadlines()
+				.entrySet()) {
+			if (!openInvitedPolls.containsKey(new PollKey(entry.getKey(),
+					reminder.getInitiator())))
+				continue; // already responded
+
+			titles.add(entry.getKey());
+			deadline = entry.getValue();
+		}
 
-					// deliver an alert to the UI
-					uiHandler.deliver("The poll [" + poll.getTitle()
-							+ "] initated by [" + poll.getInitiator()
-							+ "] was closed with the final time slot ["
-							+ poll.getTimeSlot().toString() + "]");
+		if (titles.size() == 1)
+			uiHandler.deliver("Reminder: the poll [" + titles.get(0)
+					+ "] initiated by [" + reminder.getInitiator()
+					+ "] closes at "
+					+ new SimpleDateFormat("MM/dd/yyyy HH:mm")
+							.format(new Date(deadline))
+					+ ", please respond");
+		else if (titles.size() > 1)
+			uiHandler.deliver("Reminder: " + Integer.toString(titles.size())
+					+ " polls initiated by [" + reminder.getInitiator()
+					+ "] close soon, please respond " + titles.toString());
+	}
 
-				} else {
-					// someone responded to the poll
-					if (openInvitedPolls.containsKey(poll.getKey()))
-						openInvitedPolls.put(poll.getKey(), poll);
-					else if (respondedInvitedPolls.containsKey(poll.getKey()))
-						respondedInvitedPolls.put(poll.getKey(), poll);
+	/**
+	 * The kinds of changes a poll status update may bring.
+	 */
+	private enum Change {
+		INVITATION, RESPONSES, CLOSING, NONE
+	}
 
-					// deliver an alert to the UI
-					uiHandler.deliver("The poll [" + poll.getTitle()
-							+ "] initated by [" + poll.getInitiator()
-							+ "] received new responses");
+	/**
+	 * Delivers an alert for a single poll status update to the UI.
+	 * 
+	 * @param poll
+	 *            the poll's status.
+	 * @param change
+	 *            the change the status brought.
+	 */
+	private void alert(PollStatusPayload poll, Change change) {
+		switch (change) {
+		case INVITATION:
+			uiHandler.deliver("You have been invited to a new poll ["
+					+ poll.getTitle() + "] initiated by ["
+					+ poll.getInitiator() + "]");
+			break;
+		case RESPONSES:
+			String text = "The poll [" + poll.getTitle() + "] initated by ["
+					+ poll.getInitiator() + "] received new responses";
+			uiHandler.deliver("responses:" + poll.getKey().toString(), text,
+					text + " (%d updates)");
+			break;
+		case CLOSING:
+			uiHandler.deliver("The poll [" + poll.getTitle()
+					+ "] initated by [" + poll.getInitiator()
+					+ "] was closed with the final time slot ["
+					+ poll.getTimeSlot().toString() + "]");
+			break;
+		default:
+			break;
+		}
+	}
 
+	/**
+	 * Delivers a single alert summarizing a batch of poll status updates to
+	 * the UI.
+	 * 
+	 * @param invitations
+	 *            the number of new polls.
+	 * @param updates
+	 *            the number of polls that received new responses.
+	 * @param closings
+	 *            the number of polls that were closed.
+	 */
+	private void alert(int invitations, int updates, int closings) {
+		List<String> changes = new ArrayList<String>();
+		if (invitations > 0)
+			changes.add("invited to " + Integer.toString(invitations)
+					+ " new poll(s)");
+		if (updates > 0)
+			changes.add(Integer.toString(updates)
+					+ " poll(s) received new responses");
+		if (closings > 0)
+			changes.add(Integer.toString(closings) + " poll(s) were closed");
+
+		if (changes.isEmpty())
+			return;
+
+		StringBuilder sb = new StringBuilder("Poll digest: ");
+		for (int i = 0; i < changes.size(); i++) {
+			if (i > 0)
+				sb.append(", ");
+			sb.append(changes.get(i));
+		}
+
+		uiHandler.deliver(sb.toString());
+	}
+
+	/**
+	 * Applies a poll status update to the user's local knowledge of the polls
+	 * it has been invited to. Statuses may arrive out of order or more than
+	 * once (e.g., over parallel delivery paths), so a status only replaces the
+	 * known one if its version is newer, and a closed poll is never reopened.
+	 * Replacements are compare-and-set, so concurrent updates of the same poll
+	 * never lose the newest status.
+	 * 
+	 * @param poll
+	 *            the poll's current status.
+	 * @return the change the status brought.
+	 */
+	private Change receive(PollStatusPayload poll) {
+		PollKey key = poll.getKey();
+
+		while (true) {
+			// find the known status of the poll
+			Map<PollKey, PollStatusPayload> polls = openInvitedPolls;
+			Folder folder = Folder.OPEN;
+			PollStatusPayload current = polls.get(key);
+			if (current == null) {
+				polls = respondedInvitedPolls;
+				folder = Folder.RESPONDED;
+				current = polls.get(key);
+			}
+
+			if (current != null) {
+				// this is a status update for a poll we've already been
+				// invited to
+				if (poll.getVersion() <= current.getVersion())
+					return Change.NONE; // stale or duplicate
+
+				if (poll.isClosed()) {
+					// the poll was closed (the closed view is published first
+					// so the poll never looks unknown)
+					closedInvitedPolls.put(key, poll);
+					openInvitedPolls.remove(key);
+					respondedInvitedPolls.remove(key);
+
+					return Change.CLOSING;
 				}
 
-			} else if (closedInvitedPolls.containsKey(poll.getKey())) {
-				// this is a status update for a closed poll we were invited to
-				closedInvitedPolls.put(poll.getKey(), poll);
+				// someone responded to the poll
+				if (polls.replace(key, current, poll)) {
+					inbox.put(folder, poll);
+					return Change.RESPONSES;
+				}
 
-			} else {
-				// this is an invitation to a new poll
-				openInvitedPolls.put(poll.getKey(), poll);
+				continue; // raced with another update, try again
+			}
 
-				// deliver an alert to the UI
-				uiHandler.deliver("You have been invited to a new poll ["
-						+ poll.getTitle() + "] initiated by ["
-						+ poll.getInitiator() + "]");
+			if (closedInvitedPolls.containsKey(key))
+				return Change.NONE; // closed polls are final
 
+			if (poll.isClosed()) {
+				// the poll was closed before we learned of it
+				closedInvitedPolls.put(key, poll);
+				return Change.CLOSING;
 			}
 
-		} catch (JMSException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
+			// this is an invitation to a new poll
+			if (openInvitedPolls.putIfAbsent(key, poll) == null) {
+				inbox.put(Folder.OPEN, poll);
+				return Change.INVITATION;
+			}
 
+			// raced with another delivery of the invitation, try again
+		}
 	}
 
-	/* FileMonitorDelegate Interface Implementation */
+	/**
+	 * Catches a user that just came online up on every poll initiated by this
+	 * user that owes it a message. The poll statuses are delivered together in
+	 * a single batch.
+	 * 
+	 * @param user
+	 *            the user that came online.
+	 */
+	private void catchUp(String user) {
+		Set<String> titles;
+		synchronized (pendingPolls) {
+			titles = pendingPolls.remove(user);
+		}
 
-	@Override
-	public void change(Set<String> logOns, Set<String> logOffs) {
-		// relay logon changes to open initiated polls
-		for (Poll poll : openInitiatedPolls.values()) {
-			for (String user : logOns)
-				poll.update(user);
+		if (titles == null)
+			return; // no poll owes this user anything
+
+		List<Poll> polls = new ArrayList<Poll>();
+		List<PollStatusPayload> statuses = new ArrayList<PollStatusPayload>();
+		for (String title : titles) {
+			Poll poll = openInitiatedPolls.get(title);
+			if (poll == null)
+				poll = closedInitiatedPolls.get(title);
+
+			if (poll == null || !poll.isPending(user))
+				continue;
+
+			polls.add(poll);
+			statuses.add(poll.getStatus());
 		}
 
-		// relay logon changes to closed initiated polls
-		for (Poll poll : closedInitiatedPolls.values()) {
-			for (String user : logOns)
-				poll.update(user);
+		if (polls.isEmpty())
+			return;
+
+		uiHandler.deliver("Invited user [" + user
+				+ "] just came online and is being updated on "
+				+ Integer.toString(polls.size()) + " poll(s)");
+
+		boolean success = send(user, Role.USER, new PollBatchPayload(statuses));
+
+		// the polls re-index the user if the batch was undeliverable
+		for (Poll poll : polls) {
+			poll.delivered(user, success);
+
+			// re-archive closed polls that no longer owe the user anything
+			if (success && poll.isClosed())
+				closedInitiatedPolls.put(poll.getTitle(), poll);
 		}
 	}
 
+	/**
+	 * Called when a change in available users has been detected.
+	 * 
+	 * @param logOns
+	 *            a set of the new users that have come online.
+	 * @param logOffs
+	 *            a set of existing users that have gone offline.
+	 */
+	private void change(Set<String> logOns, Set<String> logOffs) {
+		// only polls with undelivered state for a new user need to be relayed
+		for (String user : logOns)
+			catchUp(user);
+	}
+
+	/* PollJournalDelegate Interface Implementation */
+
+	@Override
+	public Collection<PollRecord> snapshotPolls() {
+		// a closing poll leaves the open polls only once it is marked closing,
+		// and stops closing only once it is archived, so scanning the open
+		// polls first never misses it
+		Map<String, PollRecord> records = new HashMap<String, PollRecord>();
+		for (Poll poll : openInitiatedPolls.values())
+			records.put(poll.getTitle(), poll.toRecord());
+		for (Poll poll : closingInitiatedPolls.values())
+			records.put(poll.getTitle(), poll.toRecord());
+
+		return records.values();
+	}
+
+	@Override
+	public boolean isArchived(String title) {
+		return archive.contains(title);
+	}
+
 	/* UIHandlerDelegate Interface Implementation */
 
+	@Override
+	public void handle(Event event) {
+		switch (event.getType()) {
+		case PRESENCE:
+			change(event.getLogOns(), event.getLogOffs());
+			break;
+		case MESSAGE:
+			onPayload(event.getPayload());
+			break;
+		default:
+			break;
+		}
+	}
+
 	@Override
 	public void quit() {
 		logOff();
-		stop();
+		if (digest != null)
+			digest.shutdown();
+		retire();
+
+		// the polls finish processing (and journaling) what they received
+		// before the journal shuts down: their transports acknowledge the
+		// payloads before the polls' events run
+		for (Poll poll : openInitiatedPolls.values())
+			poll.detach();
+		for (Poll poll : closingInitiatedPolls.values())
+			poll.detach();
+		if (uiHandler.isHeadless())
+			usersMonitor.close();
+
+		if (journal != null)
+			journal.shutdown();
+		if (archive != null)
+			archive.close();
+		inbox.close();
 
 		uiHandler.println("Goodbye " + name);
-		System.exit(0);
+		uiHandler.flush();
+
+		// a headless user leaves the process (and the other users in it)
+		// running
+		if (!uiHandler.isHeadless())
+			System.exit(0);
 	}
 
 	@Override
@@ -247,21 +738,41 @@ public class User extends Peer implements UsersMonitorDelegate,
 
 	@Override
 	public boolean openPoll(String title, Set<String> invitees,
-			List<TimeSlot> timeSlots) {
-		if (openInitiatedPolls.containsKey(title))
+			List<TimeSlot> timeSlots, long deadline, ClosingPolicy policy,
+			CloseCondition condition) {
+		if (openInitiatedPolls.containsKey(title)
+				|| closingInitiatedPolls.containsKey(title))
 			return false; // ensures poll name is unique
 
-		openInitiatedPolls.put(title, new Poll(title, name, invitees,
-				timeSlots, this));
+		Poll poll = new Poll(title, name, invitees, timeSlots, this, journal);
+		openInitiatedPolls.put(title, poll);
+
+		if (deadline > 0)
+			poll.setDeadline(deadline, policy);
+		if (condition != null)
+			poll.setCloseCondition(condition);
 
 		return true;
 	}
 
 	@Override
 	public void closePoll(String title, TimeSlot timeSlot) {
-		Poll poll = openInitiatedPolls.remove(title);
+		Poll poll = openInitiatedPolls.get(title);
+		if (poll == null
+				|| closingInitiatedPolls.putIfAbsent(title, poll) != null)
+			return; // already closed (e.g., when its deadline passed)
+
+		// the poll is marked closing before it leaves the open polls, so a
+		// journal snapshot taken meanwhile always captures it
+		openInitiatedPolls.remove(title);
+
 		poll.close(timeSlot);
+
+		// closed polls receive no more responses, so reclaim the poll's queue
+		// and move it to the archive
+		poll.retire();
 		closedInitiatedPolls.put(title, poll);
+		closingInitiatedPolls.remove(title);
 	}
 
 	@Override
@@ -273,8 +784,20 @@ public class User extends Peer implements UsersMonitorDelegate,
 				new PollResponsePayload(name, responses));
 
 		if (success) {
-			// move the poll from the open-invited to open-responded map
-			respondedInvitedPolls.put(key, openInvitedPolls.remove(key));
+			// move the poll from the open-invited to open-responded map (it
+			// is published in the responded map first so it never looks
+			// unknown, and a newer status that arrives meanwhile moves too)
+			PollStatusPayload poll;
+			while ((poll = openInvitedPolls.get(key)) != null) {
+				respondedInvitedPolls.put(key, poll);
+				if (openInvitedPolls.remove(key, poll)) {
+					inbox.put(Folder.RESPONDED, poll);
+					break;
+				}
+
+				// the status was replaced (or the poll closed) meanwhile
+				respondedInvitedPolls.remove(key, poll);
+			}
 
 			return true;
 		}
@@ -282,6 +805,30 @@ public class User extends Peer implements UsersMonitorDelegate,
 		return false;
 	}
 
+	@Override
+	public PollStatusPayload getPollDetails(PollStatusPayload poll) {
+		if (!poll.isSummary())
+			return poll;
+
+		Payload reply = request(poll.getKey().toString(), Role.POLL,
+				new PollDetailsRequestPayload(name));
+		if (!(reply instanceof PollStatusPayload))
+			return poll; // the poll is unreachable
+
+		PollStatusPayload details = (PollStatusPayload) reply;
+		if (details.getVersion() < poll.getVersion())
+			return poll;
+
+		// keep the details, unless the poll moved on in the meantime
+		PollKey key = poll.getKey();
+		if (openInvitedPolls.replace(key, poll, details))
+			inbox.put(Folder.OPEN, details);
+		else if (respondedInvitedPolls.replace(key, poll, details))
+			inbox.put(Folder.RESPONDED, details);
+
+		return details;
+	}
+
 	/* PollDelegate Interface Implementation */
 
 	@Override
@@ -289,7 +836,100 @@ public class User extends Peer implements UsersMonitorDelegate,
 		uiHandler.deliver("Poll [" + title + "]: " + activity);
 	}
 
+	@Override
+	public void pollResponded(String title, String responder) {
+		uiHandler.deliver("responded:" + title, "Poll [" + title
+				+ "]: Received response from [" + responder + "]", "Poll ["
+				+ title + "]: Received %d new responses");
+	}
+
+	@Override
+	public boolean pollUpdated(Poll poll) {
+		if (digest == null)
+			return false;
+
+		digest.add(poll);
+		return true;
+	}
+
+	@Override
+	public void pollDue(String title, TimeSlot timeSlot) {
+		uiHandler.deliver("Poll [" + title + "]: Closing automatically");
+		closePoll(title, timeSlot);
+	}
+
+	@Override
+	public void pollReminderDue(Poll poll) {
+		reminders.add(poll);
+	}
+
+	@Override
+	public void pollPending(String title, String invitee) {
+		synchronized (pendingPolls) {
+			Set<String> titles = pendingPolls.get(invitee);
+			if (titles == null) {
+				titles = new HashSet<String>();
+				pendingPolls.put(invitee, titles);
+			}
+
+			titles.add(title);
+		}
+	}
+
+	@Override
+	public void pollDelivered(String title, String invitee) {
+		synchronized (pendingPolls) {
+			Set<String> titles = pendingPolls.get(invitee);
+			if (titles == null)
+				return;
+
+			titles.remove(title);
+			if (titles.isEmpty())
+				pendingPolls.remove(invitee);
+		}
+	}
+
+	/**
+	 * Waits for the user to quit. The event loop may run on a virtual thread,
+	 * which does not keep the JVM alive by itself.
+	 */
+	public void join() {
+		try {
+			eventThread.join();
+		} catch (InterruptedException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Starts a user. By default the user runs in a terminal emulator window;
+	 * with --headless it reads its commands from standard input, and with
+	 * --script <file> from a script file, writing to standard output.
+	 */
 	public static void main(String[] args) {
-		new User();
+		Console console = new DragonConsole();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--headless")) {
+				console = new StreamConsole(System.in, System.out);
+
+			} else if (args[i].equals("--script") && i + 1 < args.length) {
+				try {
+					console = new StreamConsole(new FileInputStream(args[++i]),
+							System.out);
+				} catch (FileNotFoundException e) {
+					// TODO Auto-generated catch block
+					e.printStackTrace();
+					return;
+				}
+			}
+		}
+
+		User user = new User(console);
+		user.join();
+
+		// the process ends with its only user
+		if (console.isHeadless())
+			System.exit(0);
 	}
 }
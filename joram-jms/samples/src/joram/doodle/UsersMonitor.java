@@ -1,81 +1,86 @@
 package doodle;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.nio.file.FileSystems;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.nio.file.StandardWatchEventKinds;
 import java.nio.file.WatchKey;
 import java.nio.file.WatchService;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
 
+import doodle.EventLoop.Event;
+
 /**
- * Users run a user monitor thread to monitor the shared file of available users
- * for any changes.
+ * Users monitor the shared presence backend of available users for any
+ * changes. The monitor is polled by the user's event loop, and turns the
+ * changes it finds into presence events.
  * 
  * @author Jonas Michel
  * 
  */
-public class UsersMonitor extends Thread {
+public class UsersMonitor implements EventLoop.Source {
+
+	/** The backend storing the available users. */
+	private PresenceBackend backend;
+
+	/** Watches the backend for changes (null if it cannot be watched). */
+	private WatchService service;
+
+	/**
+	 * The current snapshot of the users online and available. The event loop
+	 * replaces it whenever the presence backend changes.
+	 */
+	private volatile Snapshot snapshot;
+
+	public UsersMonitor() {
+		backend = createBackend();
 
-	/** We make callbacks on the delegate. */
-	private UsersMonitorDelegate delegate;
+		try {
+			service = FileSystems.getDefault().newWatchService();
+			backend.register(service);
+		} catch (IOException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+			service = null;
+		}
 
-	/** Holds the names of the users currently online and available. */
-	private Set<String> users;
+		// read the users only once the backend is watched, so no change is
+		// missed (a change seen twice is applied twice, harmlessly)
+		snapshot = new Snapshot(backend.readAvailableUsers(), 0);
+	}
 
-	public UsersMonitor(UsersMonitorDelegate delegate) {
-		this.delegate = delegate;
+	/**
+	 * Creates the presence backend selected in the settings.
+	 * 
+	 * @return a presence backend.
+	 */
+	public static PresenceBackend createBackend() {
+		if (Settings.PRESENCE_BACKEND.equals(Settings.PRESENCE_SHARDED))
+			return new ShardedPresenceBackend();
 
-		users = getAvailableUsers();
+		return new SharedFilePresenceBackend();
 	}
 
 	/**
-	 * Returns a list of the available (online) users.
+	 * Returns a set of the available (online) users. The set is an immutable
+	 * view of the monitor's latest snapshot and is returned without touching
+	 * the presence backend.
 	 * 
 	 * @return the screen names of the users that are currently online and
 	 *         available.
 	 */
 	public Set<String> getAvailableUsers() {
-		try {
-			Set<String> users = new HashSet<String>();
-
-			File dir = new File(Settings.AVAILABLE_USERS_PATH);
-			File file = new File(dir, Settings.AVAILABLE_USERS_FILE);
-			BufferedReader in = new BufferedReader(new FileReader(file));
-
-			synchronized (file) {
-				String name;
-				while (in.ready()) {
-					name = in.readLine().trim();
-					if (name.equals(""))
-						continue; // skip blank lines
-
-					users.add(name);
-				}
-
-				in.close();
-			}
-
-			return users;
-
-		} catch (FileNotFoundException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
+		return snapshot.users;
+	}
 
-		return null;
+	/**
+	 * Returns the version of the available users snapshot, which increases
+	 * every time the monitor observes a change in the available users.
+	 * 
+	 * @return the snapshot version.
+	 */
+	public long getVersion() {
+		return snapshot.version;
 	}
 
 	/**
@@ -85,21 +90,7 @@ public class UsersMonitor extends Thread {
 	 *            the user name to add.
 	 */
 	public void addUser(String name) {
-		try {
-			File dir = new File(Settings.AVAILABLE_USERS_PATH);
-			File file = new File(dir, Settings.AVAILABLE_USERS_FILE);
-			PrintWriter writer = new PrintWriter(new BufferedWriter(
-					new FileWriter(file, true)));
-
-			synchronized (file) {
-				writer.println(name);
-				writer.close();
-			}
-
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
+		backend.addUser(name);
 	}
 
 	/**
@@ -109,108 +100,87 @@ public class UsersMonitor extends Thread {
 	 *            the user name to remove.
 	 */
 	public void removeUser(String name) {
-		try {
-			File dir = new File(Settings.AVAILABLE_USERS_PATH);
-			File file = new File(dir, Settings.AVAILABLE_USERS_FILE);
-			File temp = new File(dir, Settings.AVAILABLE_USERS_FILE + "."
-					+ name);
-
-			BufferedReader reader = new BufferedReader(new FileReader(file));
-			PrintWriter writer = new PrintWriter(new BufferedWriter(
-					new FileWriter(temp)));
-
-			synchronized (file) {
-				String remove = name;
-				String line;
-
-				while ((line = reader.readLine()) != null) {
-					// trim newline when comparing with lineToRemove
-					if (line.equals(remove))
-						continue;
-
-					writer.println(line);
-				}
-
-				writer.close();
+		backend.removeUser(name);
+	}
 
-				boolean successful = temp.renameTo(file);
-			}
+	/**
+	 * Stops watching the presence backend.
+	 */
+	public void close() {
+		if (service == null)
+			return;
 
+		try {
+			service.close();
 		} catch (IOException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
 		}
+		service = null;
 	}
 
 	/**
-	 * Clears the contents of the available users file.
+	 * Clears the available users.
 	 * 
 	 * @return true if successful, false otherwise.
 	 */
 	public static boolean reset() {
-		try {
-			File dir = new File(Settings.AVAILABLE_USERS_PATH);
-			File file = new File(dir, Settings.AVAILABLE_USERS_FILE);
-			File temp = new File(dir, Settings.AVAILABLE_USERS_FILE + ".empty");
-
-			PrintWriter writer = new PrintWriter(new BufferedWriter(
-					new FileWriter(temp)));
-			writer.print("");
-			writer.close();
-
-			return temp.renameTo(file);
-
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
-
-		return false;
+		return createBackend().reset();
 	}
 
+	/**
+	 * Applies the changes detected since the last poll, if any.
+	 * 
+	 * @return a presence event with the users that have come online and gone
+	 *         offline, or null if the available users did not change.
+	 */
 	@Override
-	public void run() {
-		try {
-			WatchService service = FileSystems.getDefault().newWatchService();
-			Path path = Paths.get(Settings.AVAILABLE_USERS_PATH);
-			path.register(service, StandardWatchEventKinds.ENTRY_MODIFY);
-
-			while (true) {
-				// wait until a directory change is detected
-				WatchKey key = service.take();
+	public Event poll() {
+		if (service == null)
+			return null;
+
+		// apply all pending change events to get an up-to-date list of the
+		// currently available users
+		Set<String> users = snapshot.users;
+		Set<String> availableUsers = users;
+		WatchKey key;
+		while ((key = service.poll()) != null) {
+			availableUsers = backend.apply(availableUsers, key.pollEvents());
+
+			boolean valid = key.reset();
+			if (!valid) {
+				service = null; // stop polling if directory is deleted
+				break;
+			}
+		}
 
-				// remove all pending directory change events
-				key.pollEvents();
+		// has anyone just come online?
+		Set<String> logOns = new HashSet<String>(availableUsers);
+		logOns.removeAll(users);
 
-				// get an up-to-date list of the currently available users
-				Set<String> availableUsers = getAvailableUsers();
+		// has anyone just gone offline?
+		Set<String> logOffs = new HashSet<String>(users);
+		logOffs.removeAll(availableUsers);
 
-				// has anyone just come online?
-				Set<String> logOns = new HashSet<String>(availableUsers);
-				logOns.removeAll(users);
+		if (logOns.isEmpty() && logOffs.isEmpty())
+			return null;
 
-				// has anyone just gone offline?
-				Set<String> logOffs = new HashSet<String>(users);
-				logOffs.removeAll(availableUsers);
+		// publish a new snapshot of the available users
+		snapshot = new Snapshot(availableUsers, snapshot.version + 1);
 
-				// update the list of available users
-				users = availableUsers;
+		return Event.presence(logOns, logOffs);
+	}
 
-				// notify the delegate of the changes
-				delegate.change(logOns, logOffs);
+	/**
+	 * An immutable, versioned snapshot of the available users.
+	 */
+	private static class Snapshot {
+		private final Set<String> users;
+		private final long version;
 
-				boolean valid = key.reset();
-				if (!valid) {
-					break; // Exit if directory is deleted
-				}
-			}
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		} catch (InterruptedException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+		public Snapshot(Set<String> users, long version) {
+			this.users = Collections.unmodifiableSet(users);
+			this.version = version;
 		}
-
 	}
 }
@@ -0,0 +1,162 @@
+package doodle.ui;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded ring buffer of alerts with many producers and a single consumer
+ * (the user's event thread). Producers claim a slot with a compare-and-set on
+ * the tail and never block: when the ring is full the alert is dropped and
+ * counted. The consumer drains the ring into a batch, where repeated alerts
+ * with the same key (e.g., the responses of one poll) are merged into a single
+ * alert with a count, and displays the whole batch at once.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+public class AlertBuffer {
+
+	/** The ring's slots (the number of slots is a power of two). */
+	private final AtomicReferenceArray<Alert> slots;
+	private final int mask;
+
+	/** The next slot producers claim. */
+	private final AtomicLong tail = new AtomicLong(0);
+
+	/** The next slot the consumer takes. */
+	private volatile long head = 0;
+
+	/** The number of alerts dropped since the last batch was taken. */
+	private final AtomicLong dropped = new AtomicLong(0);
+
+	/** Whether the consumer has been signaled that alerts are waiting. */
+	private final AtomicBoolean signaled = new AtomicBoolean(false);
+
+	/** The drained alerts, merged by key (only used by the consumer). */
+	private final Map<Object, Alert> batch = new LinkedHashMap<Object, Alert>();
+
+	public AlertBuffer(int capacity) {
+		int size = 1;
+		while (size < capacity)
+			size <<= 1;
+
+		slots = new AtomicReferenceArray<Alert>(size);
+		mask = size - 1;
+	}
+
+	/**
+	 * Adds an alert, or drops it if the ring is full. May be called by any
+	 * thread.
+	 * 
+	 * @param alert
+	 *            the alert.
+	 * @return true if the consumer must be signaled that alerts are waiting,
+	 *         false if it already was.
+	 */
+	public boolean offer(Alert alert) {
+		while (true) {
+			long t = tail.get();
+			if (t - head > mask) {
+				dropped.incrementAndGet();
+				break;
+			}
+
+			if (tail.compareAndSet(t, t + 1)) {
+				slots.set((int) t & mask, alert);
+				break;
+			}
+		}
+
+		return signaled.compareAndSet(false, true);
+	}
+
+	/**
+	 * Moves the alerts in the ring to the batch, merging alerts with the same
+	 * key. Called by the consumer only, when signaled.
+	 */
+	public void drain() {
+		// clear the signal first, a later offer signals again
+		signaled.set(false);
+
+		while (true) {
+			int index = (int) head & mask;
+			Alert alert = slots.get(index);
+			if (alert == null)
+				break; // empty, or the slot is claimed but not yet filled
+
+			slots.set(index, null);
+			head++; // only the consumer writes the head
+
+			Object key = alert.key != null ? alert.key : new Object();
+			Alert merged = batch.get(key);
+			if (merged != null)
+				merged.count++;
+			else if (batch.size() <= mask)
+				batch.put(key, alert);
+			else
+				dropped.incrementAndGet(); // the batch is full too
+		}
+	}
+
+	/**
+	 * Checks whether the batch holds any alerts (or dropped alerts).
+	 * 
+	 * @return true if there is nothing to display.
+	 */
+	public boolean isEmpty() {
+		return batch.isEmpty() && dropped.get() == 0;
+	}
+
+	/**
+	 * Takes the batch of alerts. Called by the consumer only.
+	 * 
+	 * @return the alerts' texts, in the order they first arrived, followed by
+	 *         a note of the dropped alerts if any.
+	 */
+	public String[] take() {
+		long lost = dropped.getAndSet(0);
+
+		String[] texts = new String[batch.size() + (lost > 0 ? 1 : 0)];
+		int i = 0;
+		for (Alert alert : batch.values())
+			texts[i++] = alert.toString();
+		if (lost > 0)
+			texts[i] = Long.toString(lost)
+					+ " alert(s) were dropped, the alert buffer was full";
+		batch.clear();
+
+		return texts;
+	}
+
+	/**
+	 * An alert. Alerts with the same (non-null) key are merged: the merged
+	 * alert reads as its merged text, with the number of alerts in place of
+	 * %d.
+	 */
+	public static class Alert {
+		private final String key;
+		private final String text;
+		private final String merged;
+		private int count = 1;
+
+		public Alert(String key, String text, String merged) {
+			this.key = key;
+			this.text = text;
+			this.merged = merged;
+		}
+
+		@Override
+		public String toString() {
+			if (count == 1)
+				return text;
+
+			if (merged != null)
+				return merged.replace("%d", Integer.toString(count));
+
+			return text + " (x" + Integer.toString(count) + ")";
+		}
+	}
+}
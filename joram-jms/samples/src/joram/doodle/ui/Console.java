@@ -0,0 +1,50 @@
+package doodle.ui;
+
+import doodle.EventLoop;
+
+/**
+ * The terminal a UIHandler talks to. A console posts each line the user
+ * enters to the user's event loop as an input event, and buffers the text
+ * written to it until it is flushed.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+public interface Console {
+
+	/**
+	 * Starts taking input.
+	 * 
+	 * @param loop
+	 *            the event loop the lines entered are posted to.
+	 */
+	public void open(EventLoop loop);
+
+	/**
+	 * Adds text to the console's output buffer. May be called by any thread.
+	 * 
+	 * @param s
+	 *            the text.
+	 */
+	public void write(String s);
+
+	/**
+	 * Writes the buffered text, possibly later (e.g., rate limited). Does not
+	 * wait for the write.
+	 */
+	public void flush();
+
+	/**
+	 * Writes the buffered text right away and waits for the write.
+	 */
+	public void flushAndWait();
+
+	/**
+	 * Checks whether the console is headless, i.e., the user is not a human
+	 * at a terminal window and the process must not be exited when the user
+	 * quits.
+	 * 
+	 * @return true if the console is headless.
+	 */
+	public boolean isHeadless();
+}
@@ -0,0 +1,120 @@
+package doodle.ui;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.lang.reflect.InvocationTargetException;
+
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+/**
+ * Buffers the text written to the console. The text accumulates until it is
+ * flushed, and is then written to the console in a single write on the event
+ * dispatch thread, so a command that prints hundreds of lines costs a single
+ * repaint. Writes are rate limited to a number of frames per second: text
+ * flushed within a frame of the last write (e.g., streaming alerts) is written
+ * together at the start of the next frame.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+public class ConsoleOutput {
+
+	/** The console's command processor, which writes to the console. */
+	private final SynchCommandProcessor processor;
+
+	/** The minimum time between two writes, in milliseconds. */
+	private final int frame;
+
+	/** The text not yet written (guarded by this). */
+	private final StringBuilder pending = new StringBuilder();
+
+	/** Whether a write is scheduled (guarded by this). */
+	private boolean scheduled = false;
+
+	/** The time of the last write (guarded by this). */
+	private long lastWrite = 0;
+
+	/** Writes the pending text, on the event dispatch thread. */
+	private final Runnable writer = new Runnable() {
+		@Override
+		public void run() {
+			String text;
+			synchronized (ConsoleOutput.this) {
+				text = pending.toString();
+				pending.setLength(0);
+				scheduled = false;
+				lastWrite = System.currentTimeMillis();
+			}
+
+			if (text.length() > 0)
+				processor.output(text);
+		}
+	};
+
+	public ConsoleOutput(SynchCommandProcessor processor, int maxFps) {
+		this.processor = processor;
+		this.frame = 1000 / maxFps;
+	}
+
+	/**
+	 * Adds text to the buffer. May be called by any thread.
+	 * 
+	 * @param s
+	 *            the text.
+	 */
+	public synchronized void write(String s) {
+		pending.append(s);
+	}
+
+	/**
+	 * Schedules a write of the buffered text, within a frame of the last
+	 * write. Does not wait for the write.
+	 */
+	public void flush() {
+		int delay;
+		synchronized (this) {
+			if (scheduled || pending.length() == 0)
+				return;
+
+			scheduled = true;
+			delay = (int) (lastWrite + frame - System.currentTimeMillis());
+		}
+
+		if (delay <= 0) {
+			SwingUtilities.invokeLater(writer);
+			return;
+		}
+
+		// a Swing timer fires on the event dispatch thread
+		Timer timer = new Timer(delay, new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				writer.run();
+			}
+		});
+		timer.setRepeats(false);
+		timer.start();
+	}
+
+	/**
+	 * Writes the buffered text right away and waits for the write (e.g.,
+	 * before the program exits).
+	 */
+	public void flushAndWait() {
+		if (SwingUtilities.isEventDispatchThread()) {
+			writer.run();
+			return;
+		}
+
+		try {
+			SwingUtilities.invokeAndWait(writer);
+		} catch (InterruptedException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		} catch (InvocationTargetException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
+	}
+}
@@ -11,6 +11,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import doodle.CloseCondition;
+import doodle.ClosingPolicy;
+import doodle.EventLoop;
 import doodle.Poll;
 import doodle.PollStatusPayload;
 import doodle.Response;
@@ -36,8 +39,9 @@ public class DoodleUserUIHandler extends UIHandler {
 	public static final String CLOSE_POLL = "e";
 	public static final String RESPOND_TO_POLL = "r";
 
-	public DoodleUserUIHandler(UIHandlerDelegate delegate) {
-		super(delegate);
+	public DoodleUserUIHandler(UIHandlerDelegate delegate, EventLoop loop,
+			Console console) {
+		super(delegate, loop, console);
 	}
 
 	@Override
@@ -99,8 +103,8 @@ public class DoodleUserUIHandler extends UIHandler {
 	}
 
 	@Override
-	public void alert(String alert) {
-		println("\t ** " + alert);
+	public String formatAlert(String alert) {
+		return "\t ** " + alert;
 	}
 
 	/**
@@ -174,8 +178,13 @@ public class DoodleUserUIHandler extends UIHandler {
 						delegate.getName(), poll.getResponses()));
 
 			} else if ((idx - myPolls.size()) <= otherPolls.size()) {
-				PollStatusPayload poll = otherPolls.get(idx - myPolls.size()
-						- 1);
+				PollStatusPayload poll = delegate.getPollDetails(otherPolls
+						.get(idx - myPolls.size() - 1));
+				if (poll.isSummary()) {
+					println("Sorry, the poll's responses are unavailable right now");
+					return;
+				}
+
 				println(Poll.displayResponses(poll.getTitle(),
 						poll.getInitiator(), poll.getResponses()));
 
@@ -309,10 +318,10 @@ public class DoodleUserUIHandler extends UIHandler {
 	 */
 	private void doCreatePoll() {
 		try {
-			print("(1/4) Enter poll title: ");
+			print("(1/5) Enter poll title: ");
 			String title = readLine().trim();
 
-			print("(2/4) Enter invitees (comma separated): ");
+			print("(2/5) Enter invitees (comma separated): ");
 			String[] inviteesArr = readLine().trim().split(",");
 			Set<String> invitees = new HashSet<String>();
 			for (String invitee : inviteesArr)
@@ -333,7 +342,7 @@ public class DoodleUserUIHandler extends UIHandler {
 			Date date = null;
 			while (date == null) {
 				try {
-					print("(3/4) Enter date (mm/dd/yyyy): ");
+					print("(3/5) Enter date (mm/dd/yyyy): ");
 					String dateStr = readLine().trim();
 					date = sdf.parse(dateStr);
 
@@ -353,7 +362,7 @@ public class DoodleUserUIHandler extends UIHandler {
 			while (timeSlots.size() == 0) {
 				try {
 
-					print("(4/4) Enter time slots (comma separated): ");
+					print("(4/5) Enter time slots (comma separated): ");
 					String[] timeSlotsArr = readLine().trim().split(",");
 					if (timeSlotsArr.length < 2)
 						throw new IOException();
@@ -373,8 +382,68 @@ public class DoodleUserUIHandler extends UIHandler {
 				}
 			}
 
+			long deadline = 0;
+			ClosingPolicy policy = null;
+			while (true) {
+				try {
+					print("(5/5) Close automatically in how many minutes"
+							+ " (<return> for never)? ");
+					String minutesStr = readLine().trim();
+					if (minutesStr.equals(""))
+						break;
+
+					long minutes = Long.parseLong(minutesStr);
+					if (minutes > 0) {
+						deadline = System.currentTimeMillis() + minutes * 60
+								* 1000;
+						break;
+					}
+
+					println("Please enter a positive number. Try again...");
+				} catch (NumberFormatException e) {
+					println("Detected invalid number of minutes. Try again...");
+				}
+			}
+
+			int minYes = 0;
+			while (true) {
+				try {
+					print("Close early once a time slot has how many yes votes"
+							+ " (<return> for never)? ");
+					String minYesStr = readLine().trim();
+					if (minYesStr.equals(""))
+						break;
+
+					minYes = Integer.parseInt(minYesStr);
+					if (minYes > 0)
+						break;
+
+					println("Please enter a positive number. Try again...");
+				} catch (NumberFormatException e) {
+					println("Detected invalid number of votes. Try again...");
+				}
+			}
+
+			Set<String> required = new HashSet<String>();
+			if (deadline > 0 || minYes > 0) {
+				print("Required attendees for the final time slot"
+						+ " (comma separated, <return> for none): ");
+				for (String attendee : readLine().trim().split(","))
+					if (!attendee.trim().equals(""))
+						required.add(attendee.trim());
+			}
+
+			if (deadline > 0)
+				policy = required.isEmpty() ? ClosingPolicy.highestScore()
+						: ClosingPolicy.requiredAttendees(required);
+
+			CloseCondition condition = null;
+			if (minYes > 0)
+				condition = new CloseCondition(minYes, required);
+
 			println("Creating your poll...");
-			delegate.openPoll(title, invitees, timeSlots);
+			delegate.openPoll(title, invitees, timeSlots, deadline, policy,
+					condition);
 
 		} catch (InterruptedException e) {
 			// TODO Auto-generated catch block
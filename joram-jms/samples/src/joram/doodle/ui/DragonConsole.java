@@ -0,0 +1,51 @@
+package doodle.ui;
+
+import com.eleet.dragonconsole.DragonConsoleFrame;
+
+import doodle.EventLoop;
+import doodle.Settings;
+
+/**
+ * A console in a Dragon Console terminal emulator window.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+public class DragonConsole implements Console {
+
+	/** The terminal emulator. */
+	private DragonConsoleFrame console;
+	private SynchCommandProcessor cmdProcessor;
+
+	/** Buffers the output written to the terminal emulator. */
+	private ConsoleOutput output;
+
+	@Override
+	public void open(EventLoop loop) {
+		console = new DragonConsoleFrame();
+		cmdProcessor = new SynchCommandProcessor(loop);
+		console.getConsole().setCommandProcessor(cmdProcessor);
+		console.setVisible(true);
+		output = new ConsoleOutput(cmdProcessor, Settings.OUTPUT_MAX_FPS);
+	}
+
+	@Override
+	public void write(String s) {
+		output.write(s);
+	}
+
+	@Override
+	public void flush() {
+		output.flush();
+	}
+
+	@Override
+	public void flushAndWait() {
+		output.flushAndWait();
+	}
+
+	@Override
+	public boolean isHeadless() {
+		return false;
+	}
+}
@@ -0,0 +1,125 @@
+package doodle.ui;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+
+import doodle.EventLoop;
+import doodle.EventLoop.Event;
+import doodle.Threads;
+
+/**
+ * A headless console that reads its input from a stream (e.g., standard input
+ * or a script file) and writes its output to another (e.g., standard output).
+ * 
+ * Lines starting with # are comments, and a line of the form "!wait <ms>"
+ * pauses the input for that many milliseconds (e.g., to let the invitations
+ * of a scripted poll arrive). When the input ends, the user quits.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+public class StreamConsole implements Console {
+
+	/** The directive that pauses the input. */
+	public static final String WAIT_DIRECTIVE = "!wait ";
+
+	/** The input. */
+	private InputStream in;
+
+	/** The output, and the text not yet written to it (guarded by this). */
+	private PrintStream out;
+	private StringBuilder pending = new StringBuilder();
+
+	public StreamConsole(InputStream in, PrintStream out) {
+		this.in = in;
+		this.out = out;
+	}
+
+	@Override
+	public void open(final EventLoop loop) {
+		Threads.start("ConsoleReader", new Runnable() {
+			@Override
+			public void run() {
+				read(loop);
+			}
+		}, true);
+	}
+
+	/**
+	 * Posts the lines read from the input to the event loop, then quits.
+	 */
+	private void read(EventLoop loop) {
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(
+					in));
+
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.startsWith("#"))
+					continue;
+
+				if (line.startsWith(WAIT_DIRECTIVE)) {
+					pause(line.substring(WAIT_DIRECTIVE.length()).trim());
+					continue;
+				}
+
+				loop.post(Event.input(line));
+			}
+
+			reader.close();
+
+		} catch (IOException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		} catch (InterruptedException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
+
+		loop.post(Event.input(UIHandler.QUIT_COMMAND));
+	}
+
+	/**
+	 * Pauses the input.
+	 * 
+	 * @param ms
+	 *            the number of milliseconds to pause for.
+	 * @throws InterruptedException
+	 */
+	private void pause(String ms) throws InterruptedException {
+		try {
+			Thread.sleep(Long.parseLong(ms));
+		} catch (NumberFormatException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
+	}
+
+	@Override
+	public synchronized void write(String s) {
+		pending.append(s);
+	}
+
+	@Override
+	public void flush() {
+		flushAndWait();
+	}
+
+	@Override
+	public synchronized void flushAndWait() {
+		if (pending.length() == 0)
+			return;
+
+		out.print(pending.toString());
+		out.flush();
+		pending.setLength(0);
+	}
+
+	@Override
+	public boolean isHeadless() {
+		return true;
+	}
+}
@@ -2,38 +2,28 @@ package doodle.ui;
 
 import com.eleet.dragonconsole.CommandProcessor;
 
+import doodle.EventLoop;
+import doodle.EventLoop.Event;
+
 /**
- * A custom Dragon Console CommandProcessor to enable a blocking readLine()
- * operation from the console.
+ * A custom Dragon Console CommandProcessor that posts each line entered in the
+ * console to the user's event loop, where readLine() takes it.
  * 
  * @author Jonas Michel
  * 
  */
 public class SynchCommandProcessor extends CommandProcessor {
-	private String input;
-	private Object inputAlert;
+	private EventLoop loop;
 
-	public SynchCommandProcessor() {
+	public SynchCommandProcessor(EventLoop loop) {
 		super();
 
-		inputAlert = new Object();
-	}
-
-	public Object getInputAlert() {
-		return inputAlert;
-	}
-
-	public String getInput() {
-		return input;
+		this.loop = loop;
 	}
 
 	@Override
 	public void processCommand(String input) {
-		this.input = input;
-
-		synchronized (inputAlert) {
-			inputAlert.notifyAll();
-		}
+		loop.post(Event.input(input));
 	}
 
 	/**
@@ -3,7 +3,10 @@ package doodle.ui;
 import java.util.HashMap;
 import java.util.Map;
 
-import com.eleet.dragonconsole.DragonConsoleFrame;
+import doodle.EventLoop;
+import doodle.EventLoop.Event;
+import doodle.Settings;
+import doodle.ui.AlertBuffer.Alert;
 
 /**
  * A UIHandler manages the command line interface (CLI) exposed to a user. The
@@ -12,15 +15,21 @@ import com.eleet.dragonconsole.DragonConsoleFrame;
  * This class should be extended to implement the CLI functionality of a
  * particular object (e.g., a doodle user).
  * 
+ * The UIHandler runs the user's event loop on its own thread: command lines
+ * are taken from the loop, and the other events that arrive while waiting for
+ * input are handled in between, even in the middle of a multi-line command.
+ * Alerts are held back until the command line is not "in use."
+ * 
+ * The CLI runs on a Console: a terminal emulator window, or a headless stream
+ * console (e.g., to drive users from scripts).
+ * 
  * @author Jonas Michel
  * 
  */
-public abstract class UIHandler extends Thread implements
-		UIAlertHandlerDelegate {
+public abstract class UIHandler implements Runnable {
 
-	/** The terminal emulator. */
-	DragonConsoleFrame console;
-	SynchCommandProcessor cmdProcessor;
+	/** The terminal. */
+	private Console console;
 
 	/** We make callbacks on the delegate. */
 	protected UIHandlerDelegate delegate;
@@ -32,19 +41,23 @@ public abstract class UIHandler extends Thread implements
 	public static final String HELP_COMMAND = "h";
 	public static final String QUIT_COMMAND = "q";
 
-	/**
-	 * The thread that issues alerts to the user when the command line is not
-	 * "in use."
-	 */
-	private UIAlertHandler uiAlertHandler;
+	/** The user's event loop. */
+	private EventLoop loop;
+
+	/** Whether the command line is waiting for a command. */
+	private boolean idle = false;
+
+	/** Holds the alerts back while the command line is in use. */
+	private AlertBuffer alerts = new AlertBuffer(Settings.ALERT_BUFFER_SIZE);
 
-	public UIHandler(UIHandlerDelegate delegate) {
+	public UIHandler(UIHandlerDelegate delegate, EventLoop loop,
+			Console console) {
 		super();
 
-		console = new DragonConsoleFrame();
-		cmdProcessor = new SynchCommandProcessor();
-		console.getConsole().setCommandProcessor(cmdProcessor);
-		console.setVisible(true);
+		this.loop = loop;
+
+		this.console = console;
+		console.open(loop);
 
 		this.delegate = delegate;
 
@@ -53,32 +66,86 @@ public abstract class UIHandler extends Thread implements
 		commands.put(QUIT_COMMAND, "Quit");
 
 		initCommands();
-
-		uiAlertHandler = new UIAlertHandler(this);
-		uiAlertHandler.start();
 	}
 
 	public void print(String s) {
-		cmdProcessor.output(s);
+		console.write(s);
 	}
 
 	public void println() {
-		cmdProcessor.output(System.getProperty("line.separator"));
+		console.write(System.getProperty("line.separator"));
 	}
 
 	public void println(String s) {
-		cmdProcessor.output(s + System.getProperty("line.separator"));
+		console.write(s + System.getProperty("line.separator"));
+	}
+
+	/**
+	 * Writes the buffered output to the terminal and waits for the write. The
+	 * output is otherwise written whenever the CLI waits for input.
+	 */
+	public void flush() {
+		console.flushAndWait();
 	}
 
+	/**
+	 * Checks whether the CLI runs on a headless console.
+	 * 
+	 * @return true if the console is headless.
+	 */
+	public boolean isHeadless() {
+		return console.isHeadless();
+	}
+
+	/**
+	 * Waits for a line of input, handling the other events that arrive in the
+	 * meantime.
+	 * 
+	 * @return the line entered.
+	 * @throws InterruptedException
+	 */
 	public String readLine() throws InterruptedException {
-		synchronized (cmdProcessor.getInputAlert()) {
-			cmdProcessor.getInputAlert().wait();
+		while (true) {
+			// show everything printed so far before waiting
+			console.flush();
+
+			Event event = loop.next();
+
+			if (event.getType() == EventLoop.Type.INPUT) {
+				// carriage return
+				println();
+
+				return event.getText();
+			}
+
+			if (event.getType() == EventLoop.Type.ALERT)
+				alerts.drain();
+			else
+				delegate.handle(event);
+
+			// display the alerts once no more events are waiting
+			if (idle && loop.isEmpty())
+				showAlerts();
 		}
+	}
 
-		// carriage return
-		println();
+	/**
+	 * Displays the alerts held back so far, in a single write.
+	 */
+	private void showAlerts() {
+		if (alerts.isEmpty())
+			return;
+
+		// make some room on the command line
+		String newLine = System.getProperty("line.separator");
+		StringBuilder sb = new StringBuilder();
+		sb.append(newLine + newLine + "New alerts..." + newLine);
 
-		return cmdProcessor.getInput();
+		// display all alerts in the batch
+		for (String alert : alerts.take())
+			sb.append(formatAlert(alert) + newLine);
+
+		print(sb.toString());
 	}
 
 	/**
@@ -95,14 +162,31 @@ public abstract class UIHandler extends Thread implements
 	public abstract void process(String input);
 
 	/**
-	 * Queues an Event on the UIAlertHandler to be displayed to the user when
-	 * the CLI is not in use.
+	 * Queues an alert to be displayed to the user when the CLI is not in use.
+	 * May be called by any thread.
 	 * 
-	 * @param event
+	 * @param alert
 	 *            a user alert.
 	 */
 	public void deliver(String alert) {
-		uiAlertHandler.enqueue(alert);
+		deliver(null, alert, null);
+	}
+
+	/**
+	 * Queues an alert that is merged with the other alerts with the same key
+	 * held back at the same time. May be called by any thread.
+	 * 
+	 * @param key
+	 *            the alert's key (null if it is never merged).
+	 * @param alert
+	 *            a user alert.
+	 * @param merged
+	 *            the text of merged alerts, with %d in place of their number.
+	 */
+	public void deliver(String key, String alert, String merged) {
+		// only the first alert since the last drain wakes the event loop
+		if (alerts.offer(new Alert(key, alert, merged)))
+			loop.post(Event.alert());
 	}
 
 	/**
@@ -128,29 +212,29 @@ public abstract class UIHandler extends Thread implements
 		
 		while (true) {
 			try {
+				showAlerts();
 				print("Enter command: ");
 
+				idle = true;
 				String command = readLine();
+				idle = false;
 
-				synchronized (this) {
-					if (command.equals("") || command.equals(" ")) {
-						// do nothing, the user hit enter to clear alerts
-					} else if (!commands.containsKey(command)) {
-						println("Sorry, " + command + " is not a valid command");
-						showHelp();
-
-					} else if (command.equals(HELP_COMMAND)) {
-						showHelp();
+				if (command.equals("") || command.equals(" ")) {
+					// do nothing, the user hit enter to clear alerts
+				} else if (!commands.containsKey(command)) {
+					println("Sorry, " + command + " is not a valid command");
+					showHelp();
 
-					} else if (command.equals(QUIT_COMMAND)) {
-						delegate.quit();
+				} else if (command.equals(HELP_COMMAND)) {
+					showHelp();
 
-					} else {
-						process(command);
+				} else if (command.equals(QUIT_COMMAND)) {
+					delegate.quit();
+					return; // a headless user's process keeps running
 
-					}
+				} else {
+					process(command);
 
-					this.notify();
 				}
 
 			} catch (InterruptedException e) {
@@ -160,8 +244,11 @@ public abstract class UIHandler extends Thread implements
 		}
 	}
 
-	/* UIAlertHandlerDelegate Interface Implementation */
-
-	@Override
-	public abstract void alert(String alert);
+	/**
+	 * Formats an alert for display to the user.
+	 * 
+	 * @param alert
+	 * @return the line displayed.
+	 */
+	public abstract String formatAlert(String alert);
 }
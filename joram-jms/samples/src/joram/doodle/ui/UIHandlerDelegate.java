@@ -4,6 +4,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import doodle.CloseCondition;
+import doodle.ClosingPolicy;
+import doodle.EventLoop.Event;
 import doodle.Poll;
 import doodle.PollStatusPayload;
 import doodle.Response;
@@ -16,6 +19,15 @@ import doodle.Poll.PollKey;
  * @author Jonas Michel
  */
 public interface UIHandlerDelegate {
+	/**
+	 * Called on the event loop to handle a presence change or an inbound
+	 * message.
+	 * 
+	 * @param event
+	 *            the event.
+	 */
+	public void handle(Event event);
+
 	/**
 	 * Called when the user wants to quit.
 	 */
@@ -80,10 +92,18 @@ public interface UIHandlerDelegate {
 	 *            the names of the users invited to participate in the poll.
 	 * @param timeSlots
 	 *            the time slot choices poll invitees may vote on.
+	 * @param deadline
+	 *            the time the poll closes automatically (0 for none).
+	 * @param policy
+	 *            chooses the final time slot when the deadline passes (null if
+	 *            there is no deadline).
+	 * @param condition
+	 *            closes the poll early once met (null for none).
 	 * @return true if successful, false otherwise.
 	 */
 	public boolean openPoll(String title, Set<String> invitees,
-			List<TimeSlot> timeSlots);
+			List<TimeSlot> timeSlots, long deadline, ClosingPolicy policy,
+			CloseCondition condition);
 
 	/**
 	 * Called to close an open poll initiated by the user.
@@ -108,4 +128,15 @@ public interface UIHandlerDelegate {
 	 */
 	public boolean respondPoll(String title, String initiator,
 			Map<TimeSlot, Response> responses);
+
+	/**
+	 * Called to get the responses of a poll the user has been invited to. A
+	 * summary status is completed by requesting the responses from the poll.
+	 * 
+	 * @param poll
+	 *            the user's current status of the poll.
+	 * @return the poll's full status, or the given status if the poll could
+	 *         not be reached.
+	 */
+	public PollStatusPayload getPollDetails(PollStatusPayload poll);
 }